@@ -0,0 +1,18 @@
+package com.mirceone.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** JMH entry point that turns on the GC (allocation) profiler unless another -prof is given. */
+public final class BenchMain {
+    private BenchMain() {}
+
+    public static void main(String[] args) throws Exception {
+        List<String> a = new ArrayList<>(List.of(args));
+        if (!a.contains("-prof")) {
+            a.add(0, "gc");
+            a.add(0, "-prof");
+        }
+        org.openjdk.jmh.Main.main(a.toArray(String[]::new));
+    }
+}
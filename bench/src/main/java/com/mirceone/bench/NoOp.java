@@ -0,0 +1,10 @@
+package com.mirceone.bench;
+
+import com.mirceone.core.Command;
+
+/** Target command for dispatch benchmarks. */
+public final class NoOp implements Command {
+    @Override public String name() { return "noop"; }
+    @Override public String description() { return "does nothing"; }
+    @Override public void run(String[] args) {}
+}
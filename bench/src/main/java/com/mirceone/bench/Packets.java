@@ -0,0 +1,53 @@
+package com.mirceone.bench;
+
+import com.mirceone.core.Crypto;
+import com.mirceone.net.FrameEncoder;
+import com.mirceone.net.MagicFrame;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/** Builds text (v1) and binary (v2) frames for the benchmarks. */
+public final class Packets {
+    public static final String SECRET = "bench-secret-0123456789abcdef";
+    public static final byte[] JUNK = "GET / HTTP/1.1\r\nHost: x\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private static final Crypto.Hmac HMAC = Crypto.hmac(SECRET);
+
+    private Packets() {}
+
+    public static long now() { return System.currentTimeMillis() / 1000; }
+
+    /** RPCS|ts|nonce|cmd|args...|hmacHex signed with {@link #SECRET}. */
+    public static byte[] signed(long ts, String nonce, String cmd, String... args) {
+        String body = unsigned(ts, nonce, cmd, args);
+        return (body + "|" + Crypto.hmacSha256Hex(SECRET, body)).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Same frame with an all-zero MAC. */
+    public static byte[] forged(long ts, String nonce, String cmd, String... args) {
+        return (unsigned(ts, nonce, cmd, args) + "|" + "0".repeat(64)).getBytes(StandardCharsets.UTF_8);
+    }
+
+    public static String unsigned(long ts, String nonce, String cmd, String... args) {
+        StringBuilder sb = new StringBuilder("RPCS|").append(ts).append('|').append(nonce).append('|').append(cmd);
+        for (String a : args) sb.append('|').append(a);
+        return sb.toString();
+    }
+
+    /** v2 frame signed with {@link #SECRET}; the nonce text is padded/truncated to 16 bytes. */
+    public static byte[] binary(long ts, String nonce, String cmd, String... args) {
+        return FrameEncoder.binary(HMAC, ts, nonce16(nonce), cmd, args);
+    }
+
+    /** v2 frame with an all-zero MAC. */
+    public static byte[] binaryForged(long ts, String nonce, String cmd, String... args) {
+        byte[] b = binary(ts, nonce, cmd, args);
+        Arrays.fill(b, b.length - MagicFrame.MAC_LEN, b.length, (byte) 0);
+        return b;
+    }
+
+    public static byte[] nonce16(String nonce) {
+        return Arrays.copyOf(nonce.getBytes(StandardCharsets.UTF_8), MagicFrame.NONCE_LEN);
+    }
+}
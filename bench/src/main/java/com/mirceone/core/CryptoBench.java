@@ -0,0 +1,51 @@
+package com.mirceone.core;
+
+import com.mirceone.bench.Packets;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/** HMAC computation and comparison: per-call Mac + hex String vs cached {@link Crypto.Hmac}. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CryptoBench {
+    @Param({"true", "false"})
+    public boolean valid;
+
+    private String canonical;
+    private String hmacHex;
+    private ByteBuffer frame;
+    private int signedLen;
+    private Crypto.Hmac hmac;
+
+    @Setup
+    public void setup() {
+        canonical = Packets.unsigned(Packets.now(), "0123456789abcdef", "suspend");
+        hmacHex = valid ? Crypto.hmacSha256Hex(Packets.SECRET, canonical) : "0".repeat(64);
+        byte[] b = (canonical + "|" + hmacHex).getBytes(StandardCharsets.UTF_8);
+        frame = ByteBuffer.allocateDirect(b.length).put(b).flip();
+        signedLen = canonical.length();
+        hmac = Crypto.hmac(Packets.SECRET);
+    }
+
+    @Benchmark
+    public boolean legacyHexEqualsIgnoreCase() {
+        return Crypto.hmacSha256Hex(Packets.SECRET, canonical).equalsIgnoreCase(hmacHex);
+    }
+
+    @Benchmark
+    public boolean cachedVerifyHexString() {
+        return hmac.verifyHex(ByteBuffer.wrap(canonical.getBytes(StandardCharsets.UTF_8)), hmacHex);
+    }
+
+    @Benchmark
+    public boolean cachedVerifyInPlace() {
+        return hmac.verifyHex(frame, 0, signedLen, signedLen + 1, 64);
+    }
+}
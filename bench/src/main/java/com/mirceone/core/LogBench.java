@@ -0,0 +1,43 @@
+package com.mirceone.core;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/** Cost of a log call on the caller's thread, with the file copy on or off, and of a suppressed call. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogBench {
+    @Param({"true", "false"})
+    public boolean fileOutput;
+
+    private final Object addr = "/203.0.113.7";
+
+    @Setup
+    public void setup() {
+        Log.fileOutput(fileOutput);
+        Log.setLevel(Log.Level.INFO);
+    }
+
+    @TearDown
+    public void tearDown() { Log.close(); }
+
+    @Benchmark
+    public void warnConcat() {
+        Log.warn("[MagicServer] drop (bad hmac) from " + addr);
+    }
+
+    @Benchmark
+    public void warnParameterized() {
+        Log.warn("[MagicServer] drop (bad hmac) from {}", addr);
+    }
+
+    @Benchmark
+    public void debugSuppressed() {
+        Log.debug("[MagicServer] ignoring junk packet from {}", addr);
+    }
+}
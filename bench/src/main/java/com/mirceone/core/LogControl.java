@@ -0,0 +1,8 @@
+package com.mirceone.core;
+
+/** Exposes {@link Log}'s file toggle to benchmarks outside this package. */
+public final class LogControl {
+    private LogControl() {}
+
+    public static void fileOutput(boolean on) { Log.fileOutput(on); }
+}
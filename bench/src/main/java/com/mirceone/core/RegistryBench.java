@@ -0,0 +1,39 @@
+package com.mirceone.core;
+
+import com.mirceone.bench.NoOp;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/** Command lookup and inline run through {@link CommandRegistry} with a no-op command. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegistryBench {
+    private static final String[] NO_ARGS = new String[0];
+    private CommandRegistry registry;
+
+    @Setup
+    public void setup() {
+        registry = new CommandRegistry();
+        registry.register(new NoOp());
+    }
+
+    @Benchmark
+    public Command find() {
+        return registry.find("NOOP");
+    }
+
+    @Benchmark
+    public boolean runByName() {
+        return registry.runByName("noop", NO_ARGS);
+    }
+
+    @Benchmark
+    public boolean runUnknown() {
+        return registry.runByName("nope", NO_ARGS);
+    }
+}
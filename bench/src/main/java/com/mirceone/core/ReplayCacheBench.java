@@ -0,0 +1,44 @@
+package com.mirceone.core;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/** {@link ReplayCache#accept} cost at different live-set sizes, fresh and replayed nonces. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReplayCacheBench {
+    @Param({"0", "1000", "100000"})
+    public int live;
+
+    private ReplayCache cache;
+    private long next;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        cache = new ReplayCache(120, Integer.MAX_VALUE);
+        for (long i = 1; i <= live; i++) cache.accept(mix(i));
+        next = live + 1;
+    }
+
+    @Benchmark
+    public boolean fresh() {
+        return cache.accept(mix(next++));
+    }
+
+    @Benchmark
+    public boolean replayed() {
+        return cache.accept(mix(1));
+    }
+
+    @Benchmark
+    public long keyFromString() {
+        return cache.key("0123456789abcdef");
+    }
+
+    private static long mix(long i) { return i * 0x9E3779B97F4A7C15L; }
+}
@@ -0,0 +1,89 @@
+package com.mirceone.net;
+
+import com.mirceone.bench.Packets;
+import com.mirceone.core.Crypto;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frame parsing: the classic String split + canonicalize vs in-place {@link MagicFrame},
+ * text (v1) vs binary (v2) frames, and the cost of encoding each. Frame sizes are printed at setup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameBench {
+    private static final Crypto.Hmac HMAC = Crypto.hmac(Packets.SECRET);
+
+    private byte[] packet, binary;
+    private ByteBuffer direct, directBinary;
+    private final ByteBuffer out = ByteBuffer.allocate(2048);
+    private final byte[] nonce = Packets.nonce16("0123456789abcdef");
+    private final MagicFrame frame = new MagicFrame();
+
+    @Setup
+    public void setup() {
+        packet = Packets.signed(Packets.now(), "0123456789abcdef", "suspend", "now");
+        binary = Packets.binary(Packets.now(), "0123456789abcdef", "suspend", "now");
+        direct = ByteBuffer.allocateDirect(2048).put(packet).flip();
+        directBinary = ByteBuffer.allocateDirect(2048).put(binary).flip();
+        System.out.println("# frame bytes: text=" + packet.length + " binary=" + binary.length);
+    }
+
+    @Benchmark
+    public String[] splitClassic() {
+        String msg = new String(packet, 0, packet.length, StandardCharsets.UTF_8).trim();
+        return msg.split("\\|");
+    }
+
+    /** The pre-Hmac canonical String the classic path used to build. */
+    @Benchmark
+    public String canonicalizeString() {
+        String[] parts = new String(packet, StandardCharsets.UTF_8).trim().split("\\|");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < parts.length - 1; i++) {
+            if (i > 0) sb.append('|');
+            sb.append(parts[i]);
+        }
+        return sb.toString();
+    }
+
+    @Benchmark
+    public long parseInPlace() {
+        return frame.parse(direct.position(0)) ? frame.timestamp() + frame.signedLength() : 0;
+    }
+
+    @Benchmark
+    public long parseBinary() {
+        return frame.parse(directBinary.position(0)) ? frame.timestamp() + frame.signedLength() : 0;
+    }
+
+    /** Parse plus materializing command and args (what a valid packet pays). */
+    @Benchmark
+    public Object parseAndMaterialize() {
+        frame.parse(direct.position(0));
+        return frame.command().length() + frame.args().length;
+    }
+
+    @Benchmark
+    public Object parseAndMaterializeBinary() {
+        frame.parse(directBinary.position(0));
+        return frame.command().length() + frame.args().length;
+    }
+
+    @Benchmark
+    public byte[] encodeText() {
+        return FrameEncoder.text(HMAC, 1_700_000_000L, "0123456789abcdef", "suspend", "now");
+    }
+
+    @Benchmark
+    public int encodeBinary() {
+        return FrameEncoder.binary(out.clear(), HMAC, 1_700_000_000L, nonce, "suspend", "now");
+    }
+}
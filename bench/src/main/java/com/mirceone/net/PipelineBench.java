@@ -0,0 +1,87 @@
+package com.mirceone.net;
+
+import com.mirceone.bench.NoOp;
+import com.mirceone.bench.Packets;
+import com.mirceone.core.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end through {@code MagicServer.handle} (no socket) for each engine and packet kind.
+ * Frames are text (v1) or binary (v2) per {@link #wire}. Dispatch runs inline with a no-op command; the log file copy is off so disk speed is not measured.
+ * Rate limiting is off except in {@link #rateLimited}, which measures the cost of shedding a flood.
+ * A "valid" packet must carry a fresh nonce, so {@link #valid} includes signing one;
+ * {@link #signOnly} measures that overhead on its own.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineBench {
+    @Param({"classic", "nio"})
+    public String engine;
+
+    @Param({"text", "binary"})
+    public String wire;
+
+    private final InetSocketAddress src = new InetSocketAddress("127.0.0.1", 40000);
+    private final MagicFrame frame = new MagicFrame();
+    private final ByteBuffer direct = ByteBuffer.allocateDirect(2048);
+    private MagicServer server;
+    private MagicServer limited;
+    private Crypto.Hmac signer;
+    private byte[] junk, forged, replay, skewed;
+    private long nonce;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        LogControl.fileOutput(false);
+        CommandRegistry registry = new CommandRegistry();
+        registry.register(new NoOp());
+        Dispatcher dispatcher = new Dispatcher(registry, Runnable::run);
+        server = new MagicServer(dispatcher, Packets.SECRET, new RateLimiter(0, 1, 0, 64));
+        limited = new MagicServer(dispatcher, Packets.SECRET, new RateLimiter(1, 1, 0, 64));
+        signer = Crypto.hmac(Packets.SECRET);
+
+        long now = Packets.now();
+        junk = Packets.JUNK;
+        boolean bin = "binary".equals(wire);
+        forged = bin ? Packets.binaryForged(now, "feedfacefeedface", "noop") : Packets.forged(now, "feedfacefeedface", "noop");
+        skewed = bin ? Packets.binary(now - 3600, "0000000000000001", "noop") : Packets.signed(now - 3600, "0000000000000001", "noop");
+        replay = bin ? Packets.binary(now, "0000000000000002", "noop") : Packets.signed(now, "0000000000000002", "noop");
+        handle(replay); // first copy is accepted, every later one is a replay
+    }
+
+    @Benchmark public void junk()   { handle(junk); }
+    @Benchmark public void forged() { handle(forged); }
+    @Benchmark public void skewed() { handle(skewed); }
+    @Benchmark public void replay() { handle(replay); }
+    @Benchmark public void valid()  { handle(freshSigned()); }
+    @Benchmark public byte[] signOnly() { return freshSigned(); }
+
+    @Benchmark
+    public void rateLimited() {
+        if ("nio".equals(engine)) limited.handle(direct.clear().put(forged).flip(), src, frame, null);
+        else limited.handle(forged, 0, forged.length, src, frame, null);
+    }
+
+    private byte[] freshSigned() {
+        String n = Long.toHexString(++nonce);
+        return "binary".equals(wire)
+                ? FrameEncoder.binary(signer, Packets.now(), Packets.nonce16(n), "noop")
+                : FrameEncoder.text(signer, Packets.now(), n, "noop");
+    }
+
+    private void handle(byte[] pkt) {
+        if ("nio".equals(engine)) {
+            server.handle(direct.clear().put(pkt).flip(), src, frame, null);
+        } else {
+            server.handle(pkt, 0, pkt.length, src, frame, null);
+        }
+    }
+}
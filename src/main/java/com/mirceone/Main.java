@@ -1,11 +1,22 @@
 package com.mirceone;
 
+import com.mirceone.core.Audit;
+import com.mirceone.core.Command;
 import com.mirceone.core.CommandRegistry;
+import com.mirceone.core.Dispatcher;
 import com.mirceone.core.Env;
+import com.mirceone.core.Exec;
+import com.mirceone.core.Keyring;
 import com.mirceone.core.Config;
 import com.mirceone.core.Log;
+import com.mirceone.core.Metrics;
+import com.mirceone.core.Scheduler;
 import com.mirceone.net.MagicServer;
+import com.mirceone.net.MetricsServer;
 
+import java.io.IOException;
+import java.net.InetAddress;
+import java.time.ZoneId;
 import java.util.*;
 
 import static com.mirceone.core.Log.*;
@@ -15,6 +26,11 @@ public class Main {
     private static volatile boolean showLogsAfterCommand = false; // toggle via `logmode on|off`
 
     public static void main(String[] args) {
+        // --- one-shot flags: --<command> [args...] (e.g., --suspend); nothing else is started ---
+        if (args.length >= 1 && args[0].startsWith("-")) {
+            System.exit(oneShot(args));
+        }
+
         if (!Env.isLinux()) {
             warn("Non-Linux OS detected. `systemctl` calls may fail.");
         }
@@ -24,45 +40,56 @@ public class Main {
         }
 
         CommandRegistry registry = new CommandRegistry();
+        Exec.configure(registry);
+        Audit.open();
+
+        boolean keyed = Keyring.configured(Config.get());
+        Dispatcher dispatcher = keyed ? new Dispatcher(registry) : null;
+
+        // --- delayed commands: schedule / jobs / cancel ---
+        Scheduler scheduler = Scheduler.open(registry, dispatcher);
+        scheduler.commands().forEach(registry::register);
 
-        // --- start UDP magic server if secret is configured ---
+        // --- start UDP magic server if any key is configured ---
         MagicServer server = null;
         Thread serverThread = null;
-        String secret = Config.secret(); // warns in Config if missing
-        if (secret != null && !secret.isBlank()) {
-            server = new MagicServer(registry);
+        if (keyed) {
+            server = new MagicServer(dispatcher);
             serverThread = new Thread(server, "rpcs-magic-udp");
             serverThread.setDaemon(true);
             serverThread.start();
             info("MagicServer thread started.");
         } else {
-            info("MagicServer not started (RPCS_SECRET missing).");
+            warn("MagicServer not started (no RPCS_SECRET or RPCS_KEY.*).");
+        }
+
+        // --- loopback metrics endpoint if RPCS_METRICS_PORT is set ---
+        MetricsServer metrics = null;
+        if (Config.metricsPort() > 0) {
+            try {
+                metrics = MetricsServer.start(Config.metricsPort());
+            } catch (Exception e) {
+                warn("Metrics endpoint not started: {}", e.getMessage());
+            }
         }
 
         // --- shutdown handling ---
         MagicServer finalServer = server;
+        MetricsServer finalMetrics = metrics;
+        Dispatcher finalDispatcher = dispatcher;
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             running = false;
+            scheduler.close();
             if (finalServer != null) finalServer.shutdown();
+            if (finalDispatcher != null) finalDispatcher.shutdown();
+            if (finalMetrics != null) finalMetrics.stop();
             info("Shutting down daemon...");
+            Audit.close();
+            Log.close();
         }));
 
-        // --- one-shot flags: --<command> [args...] (e.g., --suspend) ---
-        if (args.length >= 1 && args[0].startsWith("--")) {
-            String cmd = args[0].substring(2).toLowerCase(Locale.ROOT);
-            String[] rest = Arrays.copyOfRange(args, 1, args.length);
-            info("One-shot flag received: --" + cmd + " " + String.join(" ", rest));
-            boolean known = registry.runByName(cmd, rest);
-            if (!known) {
-                error("Unknown command flag: --" + cmd);
-                printUsageAndExit(registry, 1);
-            } else if (showLogsAfterCommand || "1".equals(System.getenv("RPCS_SHOW_LOGS"))) {
-                printTail(20);
-            }
-            return;
-        }
-
         // --- interactive REPL ---
+        Config.watch();
         printBanner(registry, server != null);
         try (Scanner sc = new Scanner(System.in)) {
             while (running) {
@@ -88,19 +115,36 @@ public class Main {
                     case "logmode" -> {
                         if (rest.length == 1) {
                             showLogsAfterCommand = rest[0].equalsIgnoreCase("on");
-                            info("logmode: " + (showLogsAfterCommand ? "on" : "off"));
+                            info("logmode: {}", showLogsAfterCommand ? "on" : "off");
                             System.out.println("logmode: " + (showLogsAfterCommand ? "on" : "off"));
                         } else {
                             System.out.println("Usage: logmode on|off");
                         }
                     }
+                    case "stats" -> System.out.print(Metrics.summary());
+                    case "audit" -> printAudit(rest);
+                    case "loglevel" -> {
+                        if (rest.length == 1) {
+                            Log.setLevel(Log.parseLevel(rest[0], Log.level()));
+                            info("loglevel: {}", Log.level());
+                        }
+                        System.out.println("loglevel: " + Log.level().name().toLowerCase(Locale.ROOT));
+                    }
+                    case "keys" -> {
+                        if (server == null) System.out.println("(magic server not running)");
+                        else server.keyring().keys().forEach(k -> System.out.println("  " + k));
+                    }
+                    case "reload" -> {
+                        List<String> changed = Config.reload();
+                        System.out.println(changed.isEmpty() ? "reload: no changes" : "reload: " + String.join(", ", changed));
+                    }
                     case "exit", "quit" -> { running = false; info("Bye."); System.out.println("Bye."); }
                     default -> {
-                        info("Command: " + cmd + " " + String.join(" ", rest));
+                        info(() -> "Command: " + cmd + " " + String.join(" ", rest));
                         boolean known = registry.runByName(cmd, rest);
                         if (!known) {
                             System.out.println("Unknown command. Type `help`.");
-                            warn("Unknown command: " + cmd);
+                            warn("Unknown command: {}", cmd);
                         } else if (showLogsAfterCommand) {
                             printTail(20);
                         }
@@ -114,7 +158,7 @@ public class Main {
         System.out.println("RPCS Daemon (stdin mode)");
         System.out.println(listening
                 ? "  [MagicServer] Listening for packets on UDP port " + Config.port()
-                : "  [MagicServer] Not running (RPCS_SECRET missing)");
+                : "  [MagicServer] Not running (no RPCS_SECRET or RPCS_KEY.*)");
         System.out.println("\nCommands:");
         System.out.print(reg.helpText());
         System.out.println("""
@@ -122,7 +166,13 @@ public class Main {
                   help            - show this help
                   clear           - clear screen
                   logs [N]        - show last N log lines (default 50)
+                  stats           - show packet, dispatch and exec metrics
                   logmode on|off  - auto-show last 20 lines after each command
+                  loglevel [LVL]  - show or set minimum log level (debug|info|warn|error)
+                  reload          - re-read settings from env and RPCS_CONFIG
+                  keys            - list device keys with their limits and counters
+                  audit [from=1d] [to=T] [cmd=C] [src=IP] [key=K] [limit=N]
+                                  - show audited requests and runs (T: 7d, 2026-10-01, 2026-10-01T08:00)
                   exit            - stop daemon
 
                 One-shot usage:
@@ -132,10 +182,70 @@ public class Main {
                 """);
     }
 
-    private static void printUsageAndExit(CommandRegistry reg, int code) {
-        System.out.println("Usage:\n  rpcs --<command> [args...]\nCommands:");
+    /**
+     * Runs a single command and returns the exit code: 0 if it succeeded, 1 if it failed,
+     * timed out or is unknown. Only the named command is loaded
+     * (see {@link CommandRegistry#load}); no server, metrics endpoint or PATH scan, since
+     * the command either finds its binary or fails with a clear error.
+     */
+    private static int oneShot(String[] args) {
+        String cmd = args[0].replaceFirst("^--?", "").toLowerCase(Locale.ROOT);
+        if (cmd.equals("help") || cmd.equals("h")) {
+            printUsage(new CommandRegistry());
+            return 0;
+        }
+        String[] rest = Arrays.copyOfRange(args, 1, args.length);
+        info(() -> "One-shot flag received: --" + cmd + " " + String.join(" ", rest));
+        Command c = CommandRegistry.load(cmd);
+        if (c == null) {
+            error("Unknown command flag: --{}", cmd);
+            printUsage(new CommandRegistry());
+            Log.close();
+            return 1;
+        }
+        Exec.configure(List.of(c)); // its own timeout, and the helper backend if configured
+        boolean ok = CommandRegistry.run(c, rest);
+        if ("1".equals(System.getenv("RPCS_SHOW_LOGS"))) printTail(20);
+        Log.close();
+        return ok ? 0 : 1;
+    }
+
+    private static void printUsage(CommandRegistry reg) {
+        System.out.println("Usage:\n  rpcs --<command> [args...]\n  rpcs --help\nCommands:");
         System.out.print(reg.helpText());
-        System.exit(code);
+    }
+
+    private static void printAudit(String[] rest) {
+        long now = System.currentTimeMillis();
+        long from = now - 86_400_000L, to = now;
+        String cmd = null, key = null;
+        InetAddress src = null;
+        int limit = 100;
+        try {
+            for (String a : rest) {
+                int eq = a.indexOf('=');
+                String k = eq < 0 ? "" : a.substring(0, eq).toLowerCase(Locale.ROOT), v = a.substring(eq + 1);
+                switch (k) {
+                    case "from" -> from = Audit.parseTime(v, now, ZoneId.systemDefault());
+                    case "to" -> to = Audit.parseTime(v, now, ZoneId.systemDefault());
+                    case "cmd" -> cmd = v.toLowerCase(Locale.ROOT);
+                    case "src" -> src = InetAddress.getByName(v);
+                    case "key" -> key = v;
+                    case "limit" -> limit = Integer.parseInt(v);
+                    default -> throw new IllegalArgumentException("unknown filter: " + a);
+                }
+            }
+            int[] total = new int[1];
+            List<Audit.Entry> entries = Audit.query(new Audit.Filter(from, to, cmd, src, key), limit, total);
+            if (entries.isEmpty()) System.out.println("(no audit records)");
+            entries.forEach(e -> System.out.println("  " + e));
+            if (total[0] > entries.size()) System.out.println("  ... " + (total[0] - entries.size()) + " more (raise limit=)");
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println("Usage: audit [from=1d] [to=T] [cmd=C] [src=IP] [key=K] [limit=N]");
+        } catch (IOException e) {
+            System.out.println("audit: " + e.getMessage());
+        }
     }
 
     private static void printTail(int n) {
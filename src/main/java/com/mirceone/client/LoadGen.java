@@ -0,0 +1,311 @@
+package com.mirceone.client;
+
+import com.mirceone.core.*;
+import com.mirceone.net.Ack;
+import com.mirceone.net.MagicServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load generator for the magic protocol. Each sender thread owns a {@link MagicClient} and
+ * cycles through a fixed, seeded schedule of packet kinds (valid, replayed, skewed, forged,
+ * junk), optionally paced to a rate. With {@code --embedded} a {@link MagicServer} bound to
+ * 127.0.0.1 runs in the same JVM with a no-op command, so the report also covers what the
+ * server received, dispatched and dropped, and its handling/dispatch latency. With
+ * {@code --ack} round trips are timed from the daemon's signed ACKs.
+ */
+public final class LoadGen {
+    enum Kind { VALID, REPLAY, SKEW, FORGED, JUNK }
+
+    private static final Set<String> TARGETS = Set.of("noop", "test"); // never load-test a power command
+    private static final byte[] JUNK = "GET / HTTP/1.1\r\nHost: rpcs\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final String[] DROPS = {"rate_limited", "junk", "bad_ts", "skew", "bad_hmac", "replay", "unknown_cmd", "dispatch_rejected"};
+    private static final int SEND_TIMES = 1 << 16;
+
+    private String host = "127.0.0.1";
+    private int port = Config.port();
+    private String secret;
+    private boolean binary;
+    private String cmd = "noop";
+    private int threads = 1;
+    private int seconds = 10;
+    private int rate;           // per sender thread, 0 = as fast as possible
+    private boolean embedded;
+    private boolean ack;
+    private boolean verbose;
+    private final int[] mix = {80, 5, 5, 5, 5};
+
+    private volatile boolean sending = true;
+    private volatile boolean receiving = true;
+    private final Metrics.Histogram rtt = Metrics.histogram("rpcs_loadgen_rtt_seconds");
+
+    public static void main(String[] args) throws Exception {
+        LoadGen g = new LoadGen();
+        try {
+            g.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            usage();
+            System.exit(2);
+        }
+        System.exit(g.run());
+    }
+
+    private void parse(String[] a) {
+        for (int i = 0; i < a.length; i++) {
+            String opt = a[i];
+            switch (opt) {
+                case "--embedded" -> embedded = true;
+                case "--ack" -> ack = true;
+                case "--binary" -> binary = true;
+                case "--verbose" -> verbose = true;
+                case "--help", "-h" -> { usage(); System.exit(0); }
+                default -> {
+                    if (i + 1 >= a.length) throw new IllegalArgumentException("missing value for " + opt);
+                    String v = a[++i];
+                    switch (opt) {
+                        case "--host" -> host = v;
+                        case "--port" -> port = Integer.parseInt(v);
+                        case "--secret" -> secret = v;
+                        case "--cmd" -> cmd = v.toLowerCase(Locale.ROOT);
+                        case "--threads" -> threads = Math.max(1, Integer.parseInt(v));
+                        case "--duration" -> seconds = Math.max(1, Integer.parseInt(v));
+                        case "--rate" -> rate = Math.max(0, Integer.parseInt(v));
+                        case "--mix" -> parseMix(v);
+                        default -> throw new IllegalArgumentException("unknown option " + opt);
+                    }
+                }
+            }
+        }
+        if (!TARGETS.contains(cmd)) throw new IllegalArgumentException("--cmd must be one of " + TARGETS);
+    }
+
+    /** e.g. {@code valid=90,forged=10}; kinds not named get 0. */
+    private void parseMix(String v) {
+        Arrays.fill(mix, 0);
+        for (String part : v.split(",")) {
+            String[] kv = part.split("=", 2);
+            if (kv.length != 2) throw new IllegalArgumentException("bad --mix entry: " + part);
+            mix[Kind.valueOf(kv[0].trim().toUpperCase(Locale.ROOT)).ordinal()] = Integer.parseInt(kv[1].trim());
+        }
+        if (Arrays.stream(mix).sum() <= 0) throw new IllegalArgumentException("--mix must have a positive weight");
+    }
+
+    private static void usage() {
+        System.out.println("""
+                Usage: rpcs-loadgen [options]
+                  --embedded         run a MagicServer on 127.0.0.1 in this JVM (no-op command, rate limit off)
+                  --host H --port P  target daemon (default 127.0.0.1 and RPCS_PORT)
+                  --secret S         shared secret (default RPCS_SECRET; random when embedded)
+                  --cmd noop|test    command to send (default noop; a real daemon answers noop as unknown)
+                  --binary           send v2 binary frames instead of text
+                  --threads N        sender threads, one socket each (default 1)
+                  --duration S       seconds to send (default 10)
+                  --rate N           packets/sec per thread, 0 = unpaced (default 0)
+                  --mix k=w,...      weights of valid,replay,skew,forged,junk (default 80,5,5,5,5)
+                  --ack              time round trips from ACKs (daemon needs RPCS_ACK=1; implied server-side when embedded)
+                  --verbose          keep INFO logging (default: WARN, so logging does not dominate)
+                """);
+    }
+
+    private int run() throws Exception {
+        if (!verbose) Log.setLevel(Log.Level.WARN);
+        if (secret == null) secret = embedded ? "loadgen-" + Long.toHexString(new Random().nextLong()) : Config.secret();
+        if (secret == null || secret.isBlank()) {
+            System.err.println("No secret: pass --secret or set RPCS_SECRET.");
+            return 2;
+        }
+
+        MagicServer server = null;
+        Dispatcher dispatcher = null;
+        if (embedded) {
+            host = "127.0.0.1";
+            CommandRegistry registry = new CommandRegistry();
+            registry.register(new NoOp());
+            dispatcher = new Dispatcher(registry);
+            server = MagicServer.loopback(dispatcher, secret, port, ack);
+            Thread t = new Thread(server, "rpcs-magic-udp");
+            t.setDaemon(true);
+            t.start();
+            Thread.sleep(300); // let the workers bind
+        }
+
+        Kind[] schedule = schedule();
+        List<Sender> senders = new ArrayList<>();
+        for (int i = 0; i < threads; i++) senders.add(new Sender(new MagicClient(new InetSocketAddress(host, port), secret, binary), schedule));
+
+        List<Thread> running = new ArrayList<>();
+        long t0 = System.nanoTime();
+        for (int i = 0; i < senders.size(); i++) {
+            Sender s = senders.get(i);
+            running.add(Thread.ofPlatform().name("loadgen-send-" + i).start(s::send));
+            if (ack) running.add(Thread.ofPlatform().name("loadgen-ack-" + i).start(s::receive));
+        }
+        Thread.sleep(seconds * 1000L);
+        sending = false;
+        long elapsed = System.nanoTime() - t0;
+        Thread.sleep(500); // let in-flight packets and ACKs land
+        receiving = false;
+        for (Thread t : running) t.join();
+        senders.forEach(s -> s.client.close());
+
+        report(senders, elapsed);
+        if (server != null) server.shutdown();
+        if (dispatcher != null) dispatcher.shutdown();
+        return 0;
+    }
+
+    /** 100 slots in mix proportions, shuffled with a fixed seed so runs are repeatable. */
+    private Kind[] schedule() {
+        int total = Arrays.stream(mix).sum();
+        List<Kind> slots = new ArrayList<>();
+        for (Kind k : Kind.values()) {
+            int n = (int) Math.round(100.0 * mix[k.ordinal()] / total);
+            for (int i = 0; i < n; i++) slots.add(k);
+        }
+        if (slots.isEmpty()) slots.add(Kind.VALID);
+        Collections.shuffle(slots, new Random(42));
+        return slots.toArray(new Kind[0]);
+    }
+
+    private final class Sender {
+        final MagicClient client;
+        final Kind[] schedule;
+        final long[] sent = new long[Kind.values().length];
+        final long[] acked = new long[Ack.Status.values().length];
+        final AtomicLongArray sendTimes = new AtomicLongArray(SEND_TIMES);
+        final byte[] replay = new byte[2048];
+        int replayLen;
+        long errors;
+
+        Sender(MagicClient client, Kind[] schedule) {
+            this.client = client;
+            this.schedule = schedule;
+        }
+
+        void send() {
+            long interval = rate > 0 ? 1_000_000_000L / rate : 0;
+            long next = System.nanoTime();
+            for (long i = 0; sending; i++) {
+                Kind k = schedule[(int) (i % schedule.length)];
+                if (k == Kind.REPLAY && replayLen == 0) k = Kind.VALID;
+                long now = System.currentTimeMillis() / 1000;
+                try {
+                    switch (k) {
+                        case VALID -> {
+                            ByteBuffer f = client.encode(now, cmd);
+                            replayLen = f.remaining();
+                            f.get(f.position(), replay, 0, replayLen);
+                            sendTimes.setPlain((int) (client.counter() & (SEND_TIMES - 1)), System.nanoTime());
+                            client.send(f);
+                        }
+                        case REPLAY -> client.send(ByteBuffer.wrap(replay, 0, replayLen));
+                        case SKEW -> client.send(client.encode(now - 3600, cmd));
+                        case FORGED -> {
+                            ByteBuffer f = client.encode(now, cmd);
+                            int last = f.limit() - 1;
+                            // stay a well-formed MAC (hex digit in text) so the server really computes the HMAC
+                            f.put(last, binary ? (byte) (f.get(last) ^ 1) : (byte) (f.get(last) == '0' ? '1' : '0'));
+                            client.send(f);
+                        }
+                        case JUNK -> client.send(JUNK);
+                    }
+                    sent[k.ordinal()]++;
+                } catch (IOException e) {
+                    errors++; // e.g. ICMP port unreachable while the daemon is down
+                }
+                if (interval > 0) {
+                    next += interval;
+                    long wait = next - System.nanoTime();
+                    if (wait > 0) LockSupport.parkNanos(wait);
+                }
+            }
+        }
+
+        void receive() {
+            try {
+                while (receiving) {
+                    Ack.Reply r = client.receive(100);
+                    if (r == null) continue;
+                    acked[r.status().ordinal()]++;
+                    long c = client.counterOf(r);
+                    if (c < 0 || r.status() != Ack.Status.QUEUED) continue;
+                    long at = sendTimes.getPlain((int) (c & (SEND_TIMES - 1)));
+                    if (at != 0) rtt.observeSince(at);
+                }
+            } catch (IOException e) {
+                if (receiving) System.err.println("ack receiver: " + e.getMessage());
+            }
+        }
+    }
+
+    // --- report ---
+
+    private void report(List<Sender> senders, long elapsedNanos) {
+        double secs = elapsedNanos / 1e9;
+        long[] sent = new long[Kind.values().length];
+        long[] acked = new long[Ack.Status.values().length];
+        long errors = 0;
+        for (Sender s : senders) {
+            for (int i = 0; i < sent.length; i++) sent[i] += s.sent[i];
+            for (int i = 0; i < acked.length; i++) acked[i] += s.acked[i];
+            errors += s.errors;
+        }
+        long total = Arrays.stream(sent).sum();
+
+        System.out.printf(Locale.ROOT, "loadgen: %s, %d sender(s), %s frames, cmd=%s, %.1f s%n",
+                embedded ? "embedded server" : host + ":" + port, threads, binary ? "binary" : "text", cmd, secs);
+        StringBuilder kinds = new StringBuilder();
+        for (Kind k : Kind.values()) kinds.append(' ').append(k.name().toLowerCase(Locale.ROOT)).append('=').append(sent[k.ordinal()]);
+        System.out.printf(Locale.ROOT, "sent      %,d (%,.0f pps)%s errors=%d%n", total, total / secs, kinds, errors);
+
+        if (embedded) {
+            long received = Metrics.counter("rpcs_packets_total").get();
+            long dispatched = Metrics.counter("rpcs_packets_dispatched_total").get();
+            long dropped = 0;
+            StringBuilder drops = new StringBuilder();
+            for (String reason : DROPS) {
+                long n = Metrics.counter("rpcs_packets_dropped_total", "reason", reason).get();
+                dropped += n;
+                if (n > 0) drops.append(' ').append(reason).append('=').append(n);
+            }
+            System.out.printf(Locale.ROOT, "server    received %,d (%,.0f pps, %.1f%% lost before the server) dispatched %,d dropped %,d (%.1f%%)%n",
+                    received, received / secs, pct(total - received, total), dispatched, dropped, pct(dropped, received));
+            System.out.println("drops    " + (drops.isEmpty() ? " none" : drops));
+            System.out.println("latency   handle " + percentiles(Metrics.histogram("rpcs_packet_handle_seconds"))
+                    + " | dispatch wait " + percentiles(Metrics.histogram("rpcs_dispatch_wait_seconds"))
+                    + " | command " + percentiles(Metrics.histogram("rpcs_command_seconds", "cmd", cmd)));
+        }
+        if (ack) {
+            StringBuilder sb = new StringBuilder();
+            for (Ack.Status s : Ack.Status.values()) sb.append(' ').append(s.code).append('=').append(acked[s.ordinal()]);
+            System.out.println("acks     " + sb + " | rtt " + percentiles(rtt));
+        }
+    }
+
+    private static double pct(long part, long whole) {
+        return whole == 0 ? 0 : 100.0 * part / whole;
+    }
+
+    private static String percentiles(Metrics.Histogram h) {
+        return "p50=" + micros(h.percentileMicros(0.50)) + " p99=" + micros(h.percentileMicros(0.99)) + " p999=" + micros(h.percentileMicros(0.999));
+    }
+
+    private static String micros(long us) {
+        if (us < 0) return "-";
+        return us >= 1000 ? "<=" + (us / 1000) + "ms" : "<=" + us + "us";
+    }
+
+    /** Target for embedded runs: measures the pipeline, not process spawning. */
+    private static final class NoOp implements Command {
+        @Override public String name() { return "noop"; }
+        @Override public String description() { return "Do nothing (load testing)"; }
+        @Override public void run(String[] args) {}
+    }
+}
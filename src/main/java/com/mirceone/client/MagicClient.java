@@ -0,0 +1,116 @@
+package com.mirceone.client;
+
+import com.mirceone.net.Ack;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+
+/**
+ * Sends signed magic packets to one daemon from one UDP socket.
+ * <p>
+ * Frames are encoded into a reused buffer with the keyed {@link com.mirceone.core.Crypto.Hmac},
+ * so steady-state sending allocates only the command/argument bytes. Nonces are a random
+ * per-client prefix plus a counter ({@link #counterOf} recovers the counter from an ACK). Not
+ * thread-safe for sending; {@link #receive} may run on a second thread. {@link MagicTcpClient}
+ * sends the same frames over a TCP connection.
+ */
+public final class MagicClient implements Closeable {
+    private final DatagramSocket sock;
+    private final Signer signer;
+    private final ByteBuffer out = ByteBuffer.allocate(2048);
+    private final DatagramPacket outPacket = new DatagramPacket(out.array(), 0);
+    private final byte[] in = new byte[2048];
+
+    /** @param binary send v2 frames instead of text */
+    public MagicClient(InetSocketAddress target, String secret, boolean binary) throws IOException {
+        this(target, null, secret, binary);
+    }
+
+    /**
+     * @param keyId  the daemon's key id for this device ({@code RPCS_KEY.<id>}); null for the default key
+     * @param secret that key's secret
+     */
+    public MagicClient(InetSocketAddress target, String keyId, String secret, boolean binary) throws IOException {
+        this.signer = new Signer(keyId, secret, binary);
+        this.sock = new DatagramSocket();
+        this.sock.connect(target);
+    }
+
+    /**
+     * Encodes a frame with a fresh nonce into the internal buffer.
+     * @return the frame, valid until the next encode
+     */
+    public ByteBuffer encode(long ts, String cmd, String... args) {
+        signer.encode(out.clear(), ts, cmd, args);
+        return out.flip();
+    }
+
+    /** Counter part of the last nonce used by {@link #encode}. */
+    public long counter() { return signer.counter(); }
+
+    public void send(ByteBuffer frame) throws IOException {
+        outPacket.setData(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+        sock.send(outPacket);
+    }
+
+    public void send(byte[] frame) throws IOException {
+        sock.send(new DatagramPacket(frame, frame.length));
+    }
+
+    /** Signs and sends {@code cmd} with the current time; returns the nonce counter. */
+    public long send(String cmd, String... args) throws IOException {
+        send(encode(System.currentTimeMillis() / 1000, cmd, args));
+        return signer.counter();
+    }
+
+    /**
+     * Sends {@code cmd} and waits for its ACK (the daemon must run with {@code RPCS_ACK=1}),
+     * retransmitting the same frame with doubling timeouts. A retransmit that arrives after
+     * the first copy is answered as a replay, which still confirms delivery.
+     * @return the ACK, or null if none arrived after {@code attempts} sends
+     */
+    public Ack.Reply request(int firstTimeoutMillis, int attempts, String cmd, String... args) throws IOException {
+        ByteBuffer frame = encode(System.currentTimeMillis() / 1000, cmd, args);
+        long sent = signer.sentCounter();
+        int timeout = firstTimeoutMillis;
+        for (int i = 0; i < attempts; i++, timeout *= 2) {
+            send(frame.duplicate());
+            long deadline = System.nanoTime() + timeout * 1_000_000L;
+            Ack.Reply r;
+            while ((r = receive((int) Math.max(1, (deadline - System.nanoTime()) / 1_000_000))) != null) {
+                if (counterOf(r) == sent) return r;
+            }
+        }
+        return null;
+    }
+
+    /** Waits for the next authentic ACK; null on timeout. Datagrams that fail verification are skipped. */
+    public Ack.Reply receive(int timeoutMillis) throws IOException {
+        sock.setSoTimeout(Math.max(1, timeoutMillis));
+        DatagramPacket p = new DatagramPacket(in, in.length);
+        try {
+            while (true) {
+                sock.receive(p);
+                Ack.Reply r = Ack.parse(ByteBuffer.wrap(in, 0, p.getLength()), signer.hmac);
+                if (r != null) return r;
+                p.setLength(in.length);
+            }
+        } catch (SocketTimeoutException e) {
+            return null;
+        }
+    }
+
+    /** The counter part of an ACK'd nonce sent by a {@code MagicClient}; -1 if it is not one of ours. */
+    public long counterOf(Ack.Reply r) { return signer.counterOf(r); }
+
+    /** The nonce of an ACK'd request as the daemon names it, e.g. to {@code cancel nonce=} a job it scheduled. */
+    public String nonceOf(Ack.Reply r) { return signer.nonceText(r); }
+
+    @Override
+    public void close() { sock.close(); }
+}
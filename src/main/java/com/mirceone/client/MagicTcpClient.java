@@ -0,0 +1,83 @@
+package com.mirceone.client;
+
+import com.mirceone.net.Ack;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+/**
+ * Sends signed frames to a daemon's TCP listener ({@code RPCS_TCP_PORT}) over one long-lived
+ * connection. Each frame and each ACK is prefixed with its length (u16, big-endian).
+ * {@link #queue} only buffers, so many requests can be pipelined with one {@link #flush};
+ * the daemon answers every frame, in order, and {@link #receive} returns the next answer.
+ * If the daemon rejects a frame (bad signature, unknown key, rate limit) it closes the
+ * connection, and {@link #receive} throws {@link EOFException}. Not thread-safe for sending;
+ * {@link #receive} may run on a second thread.
+ */
+public final class MagicTcpClient implements Closeable {
+    private final Socket sock;
+    private final Signer signer;
+    private final DataOutputStream out;
+    private final DataInputStream in;
+    private final ByteBuffer frame = ByteBuffer.allocate(2048);
+    private final byte[] reply = new byte[512];
+
+    /**
+     * @param keyId  the daemon's key id for this device ({@code RPCS_KEY.<id>}); null for the default key
+     * @param binary send v2 frames instead of text
+     */
+    public MagicTcpClient(InetSocketAddress target, String keyId, String secret, boolean binary) throws IOException {
+        this.signer = new Signer(keyId, secret, binary);
+        this.sock = new Socket();
+        sock.setTcpNoDelay(true);
+        sock.connect(target, 5000);
+        this.out = new DataOutputStream(new BufferedOutputStream(sock.getOutputStream(), 64 * 1024));
+        this.in = new DataInputStream(new BufferedInputStream(sock.getInputStream()));
+    }
+
+    /** Signs {@code cmd} with the current time and buffers it; returns the nonce counter. */
+    public long queue(String cmd, String... args) throws IOException {
+        signer.encode(frame.clear(), System.currentTimeMillis() / 1000, cmd, args);
+        out.writeShort(frame.position());
+        out.write(frame.array(), 0, frame.position());
+        return signer.counter();
+    }
+
+    /** Sends everything queued. */
+    public void flush() throws IOException { out.flush(); }
+
+    /** Sends {@code cmd} and waits for its ACK (assumes nothing else is in flight). */
+    public Ack.Reply request(String cmd, String... args) throws IOException {
+        queue(cmd, args);
+        flush();
+        return receive(0);
+    }
+
+    /**
+     * Waits for the next ACK, which answers the oldest frame not yet answered.
+     * @param timeoutMillis 0 = wait indefinitely
+     * @throws EOFException if the daemon closed the connection
+     * @throws java.net.SocketTimeoutException if nothing arrived in time
+     * @throws IOException if the reply does not verify with this client's key
+     */
+    public Ack.Reply receive(int timeoutMillis) throws IOException {
+        sock.setSoTimeout(timeoutMillis);
+        int len = in.readUnsignedShort();
+        if (len > reply.length) throw new IOException("reply too long: " + len);
+        in.readFully(reply, 0, len);
+        Ack.Reply r = Ack.parse(ByteBuffer.wrap(reply, 0, len), signer.hmac);
+        if (r == null) throw new IOException("reply does not verify");
+        return r;
+    }
+
+    /** The counter part of an ACK'd nonce sent by this client; -1 if it is not one of ours. */
+    public long counterOf(Ack.Reply r) { return signer.counterOf(r); }
+
+    /** The nonce of an ACK'd request as the daemon names it, e.g. to {@code cancel nonce=} a job it scheduled. */
+    public String nonceOf(Ack.Reply r) { return signer.nonceText(r); }
+
+    @Override
+    public void close() throws IOException { sock.close(); }
+}
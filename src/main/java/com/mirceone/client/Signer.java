@@ -0,0 +1,82 @@
+package com.mirceone.client;
+
+import com.mirceone.core.Crypto;
+import com.mirceone.net.Ack;
+import com.mirceone.net.FrameEncoder;
+import com.mirceone.net.MagicFrame;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+
+/**
+ * Frame encoding shared by the clients: the keyed {@link Crypto.Hmac}, the key id and the
+ * nonce sequence (a random per-client prefix plus a counter). Not thread-safe.
+ */
+final class Signer {
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    final Crypto.Hmac hmac;
+    final boolean binary;
+    private final byte[] keyId;
+    private final byte[] nonce = new byte[MagicFrame.NONCE_LEN];
+    private long counter;
+
+    Signer(String keyId, String secret, boolean binary) {
+        this.keyId = keyId == null ? null : keyId.getBytes(StandardCharsets.US_ASCII);
+        this.hmac = Crypto.hmac(secret);
+        this.binary = binary;
+        long prefix = new SecureRandom().nextLong();
+        if (binary) ByteBuffer.wrap(nonce).putLong(prefix);
+        else for (int i = 0; i < 8; i++) nonce[i] = HEX[(int) (prefix >>> (4 * i)) & 0xf];
+    }
+
+    /** Encodes a frame with a fresh nonce at {@code out}'s position. */
+    void encode(ByteBuffer out, long ts, String cmd, String... args) {
+        nextNonce();
+        if (binary) FrameEncoder.binary(out, hmac, keyId, ts, nonce, cmd, args);
+        else FrameEncoder.text(out, hmac, keyId, ts, nonce, cmd, args);
+    }
+
+    /** Counter part of the last nonce used by {@link #encode}. */
+    long counter() { return counter; }
+
+    /** The counter as it comes back in an ACK (text nonces carry 32 bits of it). */
+    long sentCounter() { return binary ? counter : counter & 0xffffffffL; }
+
+    /** The counter part of an ACK'd nonce from this signer; -1 if it is not one of ours. */
+    long counterOf(Ack.Reply r) {
+        byte[] n = r.nonce();
+        if (n.length != MagicFrame.NONCE_LEN) return -1;
+        for (int i = 0; i < 8; i++) if (n[i] != nonce[i]) return -1;
+        if (binary) return ByteBuffer.wrap(n).getLong(8);
+        long v = 0;
+        for (int i = 8; i < 16; i++) {
+            int d = Character.digit(n[i], 16);
+            if (d < 0) return -1;
+            v = (v << 4) | d;
+        }
+        return v;
+    }
+
+    /** An ACK'd nonce as the daemon names it (text as sent, binary as hex), e.g. for {@code cancel nonce=...}. */
+    String nonceText(Ack.Reply r) {
+        byte[] n = r.nonce();
+        if (!binary) return new String(n, StandardCharsets.US_ASCII);
+        byte[] hex = new byte[n.length * 2];
+        for (int i = 0; i < n.length; i++) {
+            hex[2 * i] = HEX[(n[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX[n[i] & 0xf];
+        }
+        return new String(hex, StandardCharsets.US_ASCII);
+    }
+
+    private void nextNonce() {
+        long c = ++counter;
+        if (binary) {
+            ByteBuffer.wrap(nonce).putLong(8, c);
+        } else {
+            for (int i = 15; i >= 8; i--, c >>>= 4) nonce[i] = HEX[(int) c & 0xf]; // 8 hex digits: counter wraps at 2^32
+        }
+    }
+}
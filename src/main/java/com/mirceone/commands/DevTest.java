@@ -4,11 +4,20 @@ import com.mirceone.core.Command;
 import com.mirceone.core.Exec;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public class DevTest implements Command {
+    private static final List<String> ARGV = List.of("echo", "dev Test working ;)");
+
     @Override public String name() { return "test"; }
     @Override public String description() { return "Run a developer test (echo)"; }
+    @Override public boolean coalescible() { return true; }
+    @Override public List<List<String>> execs() { return List.of(ARGV); }
     @Override public void run(String[] args) throws IOException, InterruptedException, Exec.CommandFailedException {
-        Exec.run("echo", "dev Test working ;)");
+        Exec.await(start(args));
+    }
+    @Override public CompletableFuture<Void> start(String[] args) {
+        return Exec.start(ARGV);
     }
 }
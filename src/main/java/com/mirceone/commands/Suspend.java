@@ -4,11 +4,22 @@ import com.mirceone.core.Command;
 import com.mirceone.core.Exec;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public final class Suspend implements Command {
+    private static final List<String> ARGV = List.of("systemctl", "suspend");
+
     @Override public String name() { return "suspend"; }
     @Override public String description() { return "systemctl suspend"; }
+    @Override public int maxConcurrent() { return 1; }
+    @Override public boolean coalescible() { return true; }
+    @Override public List<List<String>> execs() { return List.of(ARGV); }
+    @Override public long timeoutMillis() { return 15_000; }
     @Override public void run(String[] args) throws IOException, InterruptedException, Exec.CommandFailedException {
-        Exec.run("systemctl", "suspend");
+        Exec.await(start(args));
+    }
+    @Override public CompletableFuture<Void> start(String[] args) {
+        return Exec.start(ARGV);
     }
 }
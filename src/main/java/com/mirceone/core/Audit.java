@@ -0,0 +1,492 @@
+package com.mirceone.core;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.mirceone.core.Log.*;
+
+/**
+ * Append-only audit trail of commands: every authenticated request {@link com.mirceone.net.MagicServer}
+ * decides on (queued, coalesced, denied, unknown, busy), every run {@link CommandRegistry} finishes
+ * (ok, failed, with its duration and the {@link Origin} that asked for it), and every due job
+ * {@link Scheduler} could not start (busy, unknown, missed). Unlike the text log it is not
+ * free-form, so "who sent poweroff last month" is answered without parsing anything.
+ * <p>
+ * Records are fixed {@value #RECORD} bytes, big-endian, in time order:
+ * <pre>
+ * 0  long time (epoch ms)     12 u8 outcome      16 16-byte address (IPv4-mapped; 0 = local)
+ * 8  int  duration (ms)       13 u8 flags        32 long args hash (FNV-1a; 0 = no args)
+ *                             14 u16 port        40 32-byte command   72 32-byte key id
+ *                                                104 24 bytes reserved (0)
+ * </pre>
+ * Command and key id fields hold {@value #NAME} bytes of UTF-8, zero-padded: every key id
+ * ({@code MagicFrame.MAX_KEY_ID}) and command name a frame can carry is stored whole.
+ * One segment per UTC day ({@code yyyy-MM-dd.audit}: a {@value #HEADER}-byte header holding the
+ * record count, then the records), written through a memory mapping that grows
+ * {@value #GROW} bytes at a time, so appending a record is a few stores and no system call.
+ * Callers do not even do that: they offer the record to a bounded queue (never blocking; a
+ * full queue drops it and counts {@code rpcs_audit_dropped_total}) and one writer thread
+ * appends, so the packet workers never wait on each other or on a write.
+ * Next to it, {@code .idx} holds the time of every {@value #INDEX_EVERY}th record. A query
+ * opens only the segments of the days it covers, maps them read-only, and starts at the last
+ * index entry before its range instead of at the first record.
+ * <p>
+ * Enabled by {@link #open()} ({@code RPCS_AUDIT_DIR}, default {@code ~/.local/share/rpcs/audit},
+ * {@code off} to disable); segments older than {@code RPCS_AUDIT_KEEP_DAYS} are deleted.
+ * Until then, and in one-shot runs, recording does nothing.
+ */
+public final class Audit {
+    /** Stored by ordinal: only ever append. */
+    public enum Outcome { QUEUED, COALESCED, DENIED, UNKNOWN, BUSY, OK, FAILED, MISSED }
+
+    static final int RECORD = 128;
+    static final int HEADER = 64;
+    static final int INDEX_EVERY = 128;
+    static final int GROW = 1 << 20;
+    private static final int INDEX_ENTRY = 12; // long time, int record
+    static final int NAME = 32; // MagicFrame.MAX_KEY_ID and MAX_CMD
+    private static final byte[] MAGIC = {'R', 'P', 'C', 'S', 'A', 'U', 'D', '2'};
+    private static final String SUFFIX = ".audit";
+    private static final long DAY_MILLIS = 86_400_000L;
+    private static final Pattern AGO = Pattern.compile("(\\d+)([smhd])");
+    private static final DateTimeFormatter SHOW = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")
+            .withZone(ZoneId.systemDefault());
+    private static final Metrics.Counter RECORDS = Metrics.counter("rpcs_audit_records_total");
+    private static final Metrics.Counter ERRORS = Metrics.counter("rpcs_audit_errors_total");
+    private static final Metrics.Counter DROPPED = Metrics.counter("rpcs_audit_dropped_total");
+    static final int QUEUE = 4096;
+    private static final Pending STOP = new Pending(0, null, "", "", new String[0], Outcome.OK, 0);
+
+    private static final Object LOCK = new Object();
+    private static Path dir;
+    private static Segment current;
+    private static long lastTime; // writer thread only
+    private static volatile BlockingQueue<Pending> queue; // null while not recording
+    private static Thread writer;
+
+    /** A record on its way to the writer thread. */
+    private record Pending(long time, InetSocketAddress src, String key, String command, String[] args,
+                           Outcome outcome, long durationMillis) {}
+
+    private Audit() {}
+
+    /** One decoded record. */
+    public record Entry(long time, int durationMillis, Outcome outcome, InetAddress address, int port,
+                        long argsHash, String command, String key) {
+        @Override
+        public String toString() {
+            String src = address == null ? "local" : address.getHostAddress() + ":" + port;
+            return String.format("%s  %-21s %-10s %-10s %-9s %s%s", SHOW.format(Instant.ofEpochMilli(time)), src,
+                    key.isEmpty() ? "-" : key, command, outcome.name().toLowerCase(Locale.ROOT),
+                    argsHash == 0 ? "-" : String.format("args#%08x", argsHash >>> 32),
+                    durationMillis > 0 ? "  " + durationMillis + " ms" : "");
+        }
+    }
+
+    /**
+     * What a query matches; null fields match anything.
+     * @param address compared as bytes, so {@code 10.0.0.5} matches its IPv4-mapped form
+     */
+    public record Filter(long from, long to, String command, InetAddress address, String key) {
+        boolean matches(ByteBuffer b, int at, byte[] addr) {
+            long t = b.getLong(at);
+            if (t < from || t > to) return false;
+            if (command != null && !name(b, at + 40).equals(command)) return false;
+            if (key != null && !name(b, at + 72).equals(key)) return false;
+            if (addr != null) {
+                for (int i = 0; i < 16; i++) if (b.get(at + 16 + i) != addr[i]) return false;
+            }
+            return true;
+        }
+    }
+
+    // --- writing ---
+
+    /** Starts recording into {@code RPCS_AUDIT_DIR}; a no-op when it is {@code off}. */
+    public static void open() {
+        String setting = Config.auditDir();
+        if ("off".equalsIgnoreCase(setting)) return;
+        String home = System.getProperty("user.home");
+        Path d = setting != null ? Path.of(setting)
+                : home == null || home.isBlank() ? null : Paths.get(home, ".local", "share", "rpcs", "audit");
+        if (d != null) open(d);
+    }
+
+    /** Starts recording into {@code d}. */
+    static void open(Path d) {
+        try {
+            Files.createDirectories(d);
+        } catch (IOException e) {
+            warn("[Audit] {} not usable, audit disabled: {}", d, e.getMessage());
+            return;
+        }
+        synchronized (LOCK) {
+            dir = d;
+            if (queue == null) {
+                BlockingQueue<Pending> q = new ArrayBlockingQueue<>(QUEUE);
+                writer = Thread.ofPlatform().name("rpcs-audit-writer").daemon().start(() -> drain(q));
+                queue = q;
+            }
+        }
+        expire(System.currentTimeMillis());
+        info("[Audit] recording to {}", d);
+    }
+
+    /** Writes what is queued, then stops recording. */
+    public static void close() {
+        BlockingQueue<Pending> q;
+        Thread w;
+        synchronized (LOCK) {
+            q = queue;
+            w = writer;
+            queue = null;
+            writer = null;
+        }
+        if (q != null) {
+            try {
+                if (q.offer(STOP, 1, TimeUnit.SECONDS)) w.join(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (LOCK) {
+            if (current != null) current.close();
+            current = null;
+            dir = null;
+        }
+    }
+
+    /** A request {@code MagicServer} authenticated, or a job {@code Scheduler} fired, and what became of it. */
+    public static void request(InetSocketAddress src, String key, String command, String[] args, Outcome outcome) {
+        append(src, key, command, args, outcome, 0);
+    }
+
+    /** A finished run, with the source and key of whoever asked for it ({@link Origin#LOCAL}: the REPL). */
+    public static void run(Origin origin, String command, String[] args, boolean ok, long durationNanos) {
+        append(origin.source(), origin.key(), command, args, ok ? Outcome.OK : Outcome.FAILED, durationNanos / 1_000_000);
+    }
+
+    private static void append(InetSocketAddress src, String key, String command, String[] args,
+                               Outcome outcome, long durationMillis) {
+        BlockingQueue<Pending> q = queue;
+        if (q == null) return;
+        if (!q.offer(new Pending(System.currentTimeMillis(), src, key, command, args, outcome, durationMillis))) {
+            DROPPED.inc();
+        }
+    }
+
+    private static void drain(BlockingQueue<Pending> q) {
+        try {
+            for (Pending p; (p = q.take()) != STOP; ) write(p);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void write(Pending p) {
+        synchronized (LOCK) { // against close() and a query reading dir
+            if (dir == null) return;
+            // never behind the previous record, so segments stay sorted
+            long now = lastTime = Math.max(p.time, lastTime);
+            InetSocketAddress src = p.src;
+            try {
+                if (current == null || now >= current.dayStart + DAY_MILLIS) roll(now);
+                Segment s = current;
+                int at = s.reserve();
+                ByteBuffer b = s.map;
+                b.putLong(at, now);
+                b.putInt(at + 8, (int) Math.min(Integer.MAX_VALUE, p.durationMillis));
+                b.put(at + 12, (byte) p.outcome.ordinal());
+                b.put(at + 13, (byte) (src != null ? 1 : 0));
+                b.putShort(at + 14, (short) (src != null ? src.getPort() : 0));
+                b.put(at + 16, src != null ? mapped(src.getAddress()) : new byte[16]);
+                b.putLong(at + 32, hash(p.args));
+                putName(b, at + 40, p.command);
+                putName(b, at + 72, p.key);
+                s.commit(now);
+                RECORDS.inc();
+            } catch (IOException | RuntimeException e) {
+                ERRORS.inc();
+                warn("[Audit] record not written: {}", e.getMessage());
+            }
+        }
+    }
+
+    private static void roll(long now) throws IOException {
+        if (current != null) {
+            current.close();
+            current = null;
+            expire(now);
+        }
+        current = Segment.openWrite(dir, Math.floorDiv(now, DAY_MILLIS) * DAY_MILLIS);
+    }
+
+    /** Deletes segments older than {@code RPCS_AUDIT_KEEP_DAYS}. */
+    private static void expire(long now) {
+        Path d;
+        synchronized (LOCK) { d = dir; }
+        if (d == null) return;
+        LocalDate oldest = LocalDate.ofEpochDay(Math.floorDiv(now, DAY_MILLIS) - Config.auditKeepDays() + 1);
+        try (DirectoryStream<Path> segs = Files.newDirectoryStream(d, "*" + SUFFIX)) {
+            for (Path p : segs) {
+                LocalDate day = dayOf(p);
+                if (day != null && day.isBefore(oldest)) {
+                    Files.deleteIfExists(p);
+                    Files.deleteIfExists(indexOf(p));
+                    info("[Audit] expired {}", p.getFileName());
+                }
+            }
+        } catch (IOException e) {
+            warn("[Audit] expiry failed: {}", e.getMessage());
+        }
+    }
+
+    /** The day being written: a read-write mapping plus its index file. */
+    private static final class Segment {
+        final long dayStart;
+        final FileChannel ch, index;
+        MappedByteBuffer map;
+        int count;
+
+        private Segment(long dayStart, FileChannel ch, FileChannel index) {
+            this.dayStart = dayStart;
+            this.ch = ch;
+            this.index = index;
+        }
+
+        static Segment openWrite(Path dir, long dayStart) throws IOException {
+            Path p = dir.resolve(LocalDate.ofEpochDay(dayStart / DAY_MILLIS) + SUFFIX);
+            boolean fresh = !Files.exists(p);
+            if (fresh) createPrivate(p);
+            if (!Files.exists(indexOf(p))) createPrivate(indexOf(p));
+            FileChannel ch = FileChannel.open(p, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            FileChannel index = FileChannel.open(indexOf(p), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            Segment s = new Segment(dayStart, ch, index);
+            long size = Math.max(ch.size(), HEADER + GROW);
+            s.map = ch.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            if (fresh || !header(s.map)) {
+                if (!fresh) warn("[Audit] {} has a bad header, starting it over", p.getFileName());
+                s.map.put(0, MAGIC).putLong(8, dayStart).putInt(16, 0);
+                index.truncate(0);
+            }
+            s.count = Math.min(s.map.getInt(16), (int) ((size - HEADER) / RECORD));
+            return s;
+        }
+
+        /** Offset of the next record, growing the mapping when it is full. */
+        int reserve() throws IOException {
+            long at = HEADER + (long) count * RECORD;
+            if (at + RECORD > map.capacity()) {
+                if (at + RECORD + GROW > Integer.MAX_VALUE) throw new IOException("segment full");
+                map = ch.map(FileChannel.MapMode.READ_WRITE, 0, map.capacity() + GROW);
+            }
+            return (int) at;
+        }
+
+        /** Publishes the record just written: count after the record, index entry every {@value #INDEX_EVERY}. */
+        void commit(long time) throws IOException {
+            if (count % INDEX_EVERY == 0) {
+                index.write(ByteBuffer.allocate(INDEX_ENTRY).putLong(time).putInt(count).flip());
+            }
+            map.putInt(16, ++count);
+        }
+
+        void close() {
+            try {
+                map.force();
+                ch.close();
+                index.close();
+            } catch (IOException e) {
+                warn("[Audit] close failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    // --- reading ---
+
+    /**
+     * Records matching {@code f}, oldest first, at most {@code limit} of them.
+     * @param total receives the number of matches, including those beyond {@code limit}; may be null
+     */
+    public static List<Entry> query(Filter f, int limit, int[] total) throws IOException {
+        Path d;
+        synchronized (LOCK) { d = dir; }
+        if (d == null) throw new IOException("audit log is off");
+        List<Entry> out = new ArrayList<>();
+        byte[] addr = f.address == null ? null : mapped(f.address);
+        int matched = 0;
+        // no segment is newer than tomorrow (UTC) or older than any sane retention
+        long lastDay = Math.min(Math.floorDiv(f.to, DAY_MILLIS), Math.floorDiv(System.currentTimeMillis(), DAY_MILLIS) + 1);
+        long firstDay = Math.max(Math.floorDiv(f.from, DAY_MILLIS), lastDay - 3660);
+        for (long day = firstDay; day <= lastDay; day++) {
+            Path p = d.resolve(LocalDate.ofEpochDay(day) + SUFFIX);
+            if (!Files.exists(p)) continue;
+            try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+                if (ch.size() < HEADER) continue;
+                ByteBuffer b = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+                if (!header(b)) {
+                    warn("[Audit] skipping {}: bad header", p.getFileName());
+                    continue;
+                }
+                int count = Math.min(b.getInt(16), (int) ((ch.size() - HEADER) / RECORD));
+                for (int i = startRecord(p, f.from, count); i < count; i++) {
+                    int at = HEADER + i * RECORD;
+                    if (b.getLong(at) > f.to) break;
+                    if (!f.matches(b, at, addr)) continue;
+                    if (matched++ < limit) out.add(decode(b, at));
+                }
+            }
+        }
+        if (total != null && total.length > 0) total[0] = matched;
+        return out;
+    }
+
+    /** The record to start scanning a segment at: the last indexed one before {@code from}. */
+    private static int startRecord(Path segment, long from, int count) throws IOException {
+        Path idx = indexOf(segment);
+        if (!Files.exists(idx)) return 0;
+        try (FileChannel ch = FileChannel.open(idx, StandardOpenOption.READ)) {
+            int n = (int) (ch.size() / INDEX_ENTRY);
+            if (n == 0) return 0;
+            ByteBuffer b = ch.map(FileChannel.MapMode.READ_ONLY, 0, (long) n * INDEX_ENTRY);
+            int lo = 0, hi = n - 1, start = 0;
+            while (lo <= hi) { // last entry with time < from
+                int mid = (lo + hi) >>> 1;
+                if (b.getLong(mid * INDEX_ENTRY) < from) {
+                    start = b.getInt(mid * INDEX_ENTRY + 8);
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return Math.min(start, count);
+        }
+    }
+
+    private static Entry decode(ByteBuffer b, int at) {
+        InetAddress addr = null;
+        if ((b.get(at + 13) & 1) != 0) {
+            byte[] a = new byte[16];
+            b.get(at + 16, a);
+            try {
+                addr = InetAddress.getByAddress(a); // IPv4-mapped comes back as Inet4Address
+            } catch (UnknownHostException e) {
+                // 16 bytes is always a valid address
+            }
+        }
+        int o = b.get(at + 12) & 0xff;
+        Outcome[] all = Outcome.values();
+        return new Entry(b.getLong(at), b.getInt(at + 8), all[Math.min(o, all.length - 1)], addr,
+                b.getShort(at + 14) & 0xffff, b.getLong(at + 32), name(b, at + 40), name(b, at + 72));
+    }
+
+    /**
+     * A query time: an age ({@code 30m}, {@code 7d}, {@code 1d12h}: that long ago), a local date
+     * ({@code 2026-10-01}, its start) or a local date-time ({@code 2026-10-01T08:00}).
+     * @throws IllegalArgumentException if it is none of these
+     */
+    public static long parseTime(String s, long nowMillis, ZoneId zone) {
+        Matcher m = AGO.matcher(s.toLowerCase(Locale.ROOT));
+        long ago = 0;
+        int end = 0;
+        while (m.find() && m.start() == end) {
+            long v = Long.parseLong(m.group(1));
+            ago += switch (m.group(2)) {
+                case "s" -> v * 1000;
+                case "m" -> v * 60_000;
+                case "h" -> v * 3_600_000;
+                default -> v * DAY_MILLIS;
+            };
+            end = m.end();
+            if (ago > 3660 * DAY_MILLIS) throw new IllegalArgumentException("too far back: " + s);
+        }
+        if (end > 0 && end == s.length()) return nowMillis - ago;
+        try {
+            return s.contains("T") ? LocalDateTime.parse(s).atZone(zone).toInstant().toEpochMilli()
+                    : LocalDate.parse(s).atStartOfDay(zone).toInstant().toEpochMilli();
+        } catch (DateTimeException e) {
+            throw new IllegalArgumentException("bad time: " + s);
+        }
+    }
+
+    // --- encoding ---
+
+    private static boolean header(ByteBuffer b) {
+        for (int i = 0; i < MAGIC.length; i++) if (b.get(i) != MAGIC[i]) return false;
+        return true;
+    }
+
+    private static byte[] mapped(InetAddress a) {
+        byte[] raw = a.getAddress();
+        if (raw.length == 16) return raw;
+        byte[] m = new byte[16];
+        m[10] = m[11] = (byte) 0xff;
+        System.arraycopy(raw, 0, m, 12, 4);
+        return m;
+    }
+
+    /** FNV-1a over the UTF-8 args, each followed by a NUL; 0 when there are none. */
+    static long hash(String[] args) {
+        if (args.length == 0) return 0;
+        long h = 0xcbf29ce484222325L;
+        for (String a : args) {
+            for (byte c : a.getBytes(StandardCharsets.UTF_8)) h = (h ^ (c & 0xff)) * 0x100000001b3L;
+            h *= 0x100000001b3L; // the NUL
+        }
+        return h == 0 ? 1 : h;
+    }
+
+    /** Writes {@code s} into a {@value #NAME}-byte field, zero-padded, cut on a character boundary. */
+    private static void putName(ByteBuffer b, int at, String s) {
+        byte[] v = s.getBytes(StandardCharsets.UTF_8);
+        int n = Math.min(v.length, NAME);
+        while (n < v.length && n > 0 && (v[n] & 0xc0) == 0x80) n--;
+        for (int i = 0; i < NAME; i++) b.put(at + i, i < n ? v[i] : 0);
+    }
+
+    private static String name(ByteBuffer b, int at) {
+        int n = 0;
+        while (n < NAME && b.get(at + n) != 0) n++;
+        byte[] v = new byte[n];
+        b.get(at, v);
+        return new String(v, StandardCharsets.UTF_8);
+    }
+
+    private static void createPrivate(Path p) throws IOException {
+        try {
+            Files.createFile(p, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            Files.createFile(p);
+        }
+    }
+
+    private static Path indexOf(Path segment) {
+        String f = segment.getFileName().toString();
+        return segment.resolveSibling(f.substring(0, f.length() - SUFFIX.length()) + ".idx");
+    }
+
+    private static LocalDate dayOf(Path segment) {
+        String f = segment.getFileName().toString();
+        try {
+            return LocalDate.parse(f.substring(0, f.length() - SUFFIX.length()));
+        } catch (DateTimeException e) {
+            return null;
+        }
+    }
+}
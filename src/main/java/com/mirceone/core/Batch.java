@@ -0,0 +1,52 @@
+package com.mirceone.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Several commands sent as one request: the command {@value #NAME}, whose first argument is
+ * the mode and whose remaining arguments are the steps, separated by {@value #SEP} arguments:
+ * <pre>
+ * RPCS|ts|nonce|batch|stop|test|;|suspend|hmacHex
+ * </pre>
+ * Mode {@code stop} ends the batch at the first step that fails; {@code all} runs every step.
+ * Steps run in order, each once the previous one has finished. The frame is authenticated
+ * and replay-checked once, and its key must allow every step. A step cannot take a literal
+ * {@value #SEP} argument.
+ */
+public record Batch(boolean stopOnFailure, List<Step> steps) {
+    public static final String NAME = "batch";
+    public static final String SEP = ";";
+
+    public record Step(String name, String[] args) {
+        @Override
+        public String toString() {
+            return args.length == 0 ? name : name + " " + String.join(" ", args);
+        }
+    }
+
+    /** @return null if {@code args} are not a mode followed by one or more non-empty steps */
+    public static Batch parse(String[] args) {
+        if (args.length < 2) return null;
+        String mode = args[0].toLowerCase(Locale.ROOT);
+        if (!mode.equals("stop") && !mode.equals("all")) return null;
+        List<Step> steps = new ArrayList<>();
+        int from = 1;
+        for (int i = 1; i <= args.length; i++) {
+            if (i < args.length && !args[i].equals(SEP)) continue;
+            if (i == from || args[from].isEmpty()) return null; // empty step
+            steps.add(new Step(args[from].toLowerCase(Locale.ROOT), Arrays.copyOfRange(args, from + 1, i)));
+            from = i + 1;
+        }
+        return new Batch(mode.equals("stop"), List.copyOf(steps));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(stopOnFailure ? "stop" : "all").append(':');
+        for (Step s : steps) sb.append(" [").append(s).append(']');
+        return sb.toString();
+    }
+}
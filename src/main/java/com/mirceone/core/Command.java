@@ -2,10 +2,32 @@ package com.mirceone.core;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public interface Command {
     String name();                       // e.g., "suspend"
     String description();                // short help line
     default List<String> aliases() { return List.of(); }
+    default int maxConcurrent() { return 0; }    // in-flight limit for async dispatch, 0 = unlimited
+    default boolean coalescible() { return false; }  // identical requests in a burst share one run (see CommandRegistry.start)
+    default List<List<String>> execs() { return List.of(); }  // exact argv lists run() may exec (exec helper allowlist)
+    default long timeoutMillis() { return 0; }   // exec timeout, 0 = RPCS_EXEC_TIMEOUT_MS
     void run(String[] args) throws IOException, InterruptedException, Exec.CommandFailedException;
+
+    /**
+     * Starts the command without blocking the caller until it finishes. The default runs
+     * {@link #run} inline; commands that only exec should return {@link Exec#start} so no
+     * thread waits on the process.
+     */
+    default CompletableFuture<Void> start(String[] args) {
+        try {
+            run(args);
+            return CompletableFuture.completedFuture(null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
 }
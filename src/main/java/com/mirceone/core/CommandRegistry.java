@@ -1,6 +1,12 @@
 package com.mirceone.core;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.mirceone.core.Log.*;
 
 public final class CommandRegistry {
     private final Map<String, Command> byName = new LinkedHashMap<>();
@@ -26,26 +32,172 @@ public final class CommandRegistry {
         }
     }
 
+    /**
+     * Finds one command without building a registry: providers are instantiated in
+     * service-file order only until the match (for one-shot runs).
+     * @return null if no command has this name or alias
+     */
+    public static Command load(String name) {
+        for (Command c : ServiceLoader.load(Command.class)) {
+            if (c.name().equalsIgnoreCase(name)) return c;
+            for (String alias : c.aliases()) if (alias.equalsIgnoreCase(name)) return c;
+        }
+        return null;
+    }
+
+    public Command find(String name) {
+        return byName.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    /** Registered commands, each once. */
+    public Collection<Command> commands() {
+        return new LinkedHashSet<>(byName.values());
+    }
+
     public boolean runByName(String name, String[] args) {
-        Command cmd = byName.get(name.toLowerCase(Locale.ROOT));
+        Command cmd = find(name);
         if (cmd == null) return false;
+        run(cmd, args);
+        return true;
+    }
+
+    /**
+     * Runs a resolved command, reporting failures instead of throwing.
+     * @return whether it succeeded
+     */
+    public static boolean run(Command cmd, String[] args) {
+        return start(cmd, args).join();
+    }
+
+    /**
+     * Starts a resolved command; the future completes normally once it has finished, with
+     * whether it succeeded, after any failure has been reported. A {@link Command#coalescible()} command with the same
+     * args as a run still in flight, or finished less than {@code RPCS_COALESCE_MS} ago,
+     * joins that run instead of starting another.
+     */
+    public static CompletableFuture<Boolean> start(Command cmd, String[] args) {
+        return start(cmd, args, Origin.LOCAL);
+    }
+
+    private static final ThreadLocal<Origin> STARTING = new ThreadLocal<>();
+
+    /**
+     * Who asked for the command whose {@link Command#start} is running on this thread
+     * (e.g. so {@code schedule} can remember it); {@link Origin#LOCAL} anywhere else.
+     */
+    public static Origin origin() {
+        Origin o = STARTING.get();
+        return o != null ? o : Origin.LOCAL;
+    }
+
+    /** @param origin who asked, recorded with the run in the {@link Audit} log */
+    public static CompletableFuture<Boolean> start(Command cmd, String[] args, Origin origin) {
+        if (!cmd.coalescible()) return launch(cmd, args, origin);
+        Flight.Key key = new Flight.Key(cmd, List.of(args));
+        long window = Config.coalesceMillis();
+        Flight mine = new Flight();
+        Flight f = FLIGHTS.compute(key, (k, cur) -> cur != null && cur.joinable(window) ? cur : mine);
+        if (f != mine) return merged(cmd, f);
+        launch(cmd, args, origin).thenAccept(ok -> {
+            mine.finishedAt = System.nanoTime();
+            mine.done.complete(ok);
+            CompletableFuture.delayedExecutor(window, TimeUnit.MILLISECONDS).execute(() -> FLIGHTS.remove(key, mine));
+        });
+        return mine.done;
+    }
+
+    /**
+     * The run a coalescible command with these args would join right now, without starting one.
+     * @return null if it is not coalescible or there is nothing to join
+     */
+    public static CompletableFuture<Boolean> join(Command cmd, String[] args) {
+        if (!cmd.coalescible()) return null;
+        Flight f = FLIGHTS.get(new Flight.Key(cmd, List.of(args)));
+        return f != null && f.joinable(Config.coalesceMillis()) ? merged(cmd, f) : null;
+    }
+
+    private static CompletableFuture<Boolean> merged(Command cmd, Flight f) {
+        Metrics.counter("rpcs_command_coalesced_total", "cmd", cmd.name()).inc();
+        info("[CommandRegistry] {} joined the run {}", cmd.name(), f.done.isDone() ? "that just finished" : "in flight");
+        return f.done;
+    }
+
+    private static CompletableFuture<Boolean> launch(Command cmd, String[] args, Origin origin) {
+        long t0 = System.nanoTime();
+        CompletableFuture<Void> f;
+        STARTING.set(origin);
         try {
-            cmd.run(args);
-        } catch (Exec.CommandFailedException e) {
-            System.err.println("[ERROR] " + e.getMessage());
-            if (e.exitCode == 1) System.err.println("Tip: May require sudo/polkit.");
-        } catch (Exception e) {
-            System.err.println("[ERROR] " + e.getMessage());
-            if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+            f = cmd.start(args);
+        } catch (RuntimeException e) {
+            f = CompletableFuture.failedFuture(e);
+        } finally {
+            STARTING.remove();
+        }
+        return f.handle((v, e) -> {
+            if (e != null) report(cmd, e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            Metrics.histogram("rpcs_command_seconds", "cmd", cmd.name()).observeSince(t0);
+            Audit.run(origin, cmd.name(), args, e == null, System.nanoTime() - t0);
+            return e == null;
+        });
+    }
+
+    /**
+     * Starts the steps of {@code batch} one after another, {@code cmds} being its resolved
+     * commands. Each step goes through {@link #start}, so it is reported and may coalesce.
+     * @return completes with the number of steps that succeeded, once the batch is done
+     */
+    public static CompletableFuture<Integer> start(Batch batch, List<Command> cmds, Origin origin) {
+        int n = cmds.size();
+        CompletableFuture<Integer> f = CompletableFuture.completedFuture(0);
+        for (int i = 0; i < n; i++) {
+            int step = i;
+            Command cmd = cmds.get(i);
+            String[] args = batch.steps().get(i).args();
+            // fewer successes than steps so far means one failed
+            f = f.thenCompose(ok -> batch.stopOnFailure() && ok < step
+                    ? CompletableFuture.completedFuture(ok)
+                    : start(cmd, args, origin).thenApply(s -> s ? ok + 1 : ok));
+        }
+        return f.whenComplete((ok, e) -> {
+            boolean passed = e == null && ok == n; // ok is null when the batch itself failed
+            Metrics.counter("rpcs_batches_total", "result", passed ? "ok" : "failed").inc();
+            if (passed) info("[CommandRegistry] batch ok: {} step(s)", n);
+            else if (e != null) warn("[CommandRegistry] batch failed: {} ({})", e.getMessage(), batch);
+            else warn("[CommandRegistry] batch failed: {}/{} step(s) ok ({})", ok, n, batch);
+        });
+    }
+
+    private static void report(Command cmd, Throwable e) {
+        failed(cmd);
+        System.err.println("[ERROR] " + e.getMessage());
+        error("[CommandRegistry] {} failed: {}", cmd.name(), e.getMessage());
+        if (e instanceof Exec.CommandFailedException f && f.exitCode == 1) System.err.println("Tip: May require sudo/polkit.");
+    }
+
+    private static void failed(Command cmd) {
+        Metrics.counter("rpcs_command_failures_total", "cmd", cmd.name()).inc();
+    }
+
+    // --- single flight ---
+
+    private static final Map<Flight.Key, Flight> FLIGHTS = new ConcurrentHashMap<>();
+
+    /** One run of a coalescible command; later identical requests share its future. */
+    private static final class Flight {
+        record Key(Command cmd, List<String> args) {}
+
+        final CompletableFuture<Boolean> done = new CompletableFuture<>();
+        volatile long finishedAt; // System.nanoTime(), set before done completes
+
+        boolean joinable(long windowMillis) {
+            return !done.isDone() || System.nanoTime() - finishedAt <= windowMillis * 1_000_000L;
         }
-        return true;
     }
 
     public String helpText() {
         // deduplicate: prefer canonical names
-        LinkedHashSet<Command> uniq = new LinkedHashSet<>(byName.values());
         StringBuilder sb = new StringBuilder();
-        for (Command c : uniq) {
+        for (Command c : commands()) {
             String aliases = c.aliases().isEmpty() ? "" : " (aliases: " + String.join(", ", c.aliases()) + ")";
             sb.append(String.format("  %-10s - %s%s%n", c.name(), c.description(), aliases));
         }
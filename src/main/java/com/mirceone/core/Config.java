@@ -1,27 +1,316 @@
 package com.mirceone.core;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+
+/**
+ * Daemon settings, loaded once into an immutable {@link Snapshot} and published through a
+ * volatile reference, so readers on hot paths pay one field read and no parsing.
+ * <p>
+ * Each setting comes from the properties file named by {@code RPCS_CONFIG} (same key names),
+ * else the environment variable, else its default. {@link #reload()} re-reads both, swaps the
+ * snapshot and tells listeners; it runs on the REPL {@code reload} command and, after
+ * {@link #watch()}, whenever the file changes. Skew, rate limits, log level and the secret
+ * apply live; keys in {@link #RESTART_ONLY} only take effect on restart. Per-device
+ * {@code RPCS_KEY.*} entries (see {@link Keyring}) are read from the file only and apply live.
+ */
 public class Config {
+    static final List<String> KEYS = List.of(
+            "RPCS_PORT", "RPCS_SECRET", "RPCS_SKEW", "RPCS_UDP_ENGINE", "RPCS_BIND", "RPCS_UDP_WORKERS", "RPCS_ACK",
+            "RPCS_DISPATCH_THREADS", "RPCS_DISPATCH_QUEUE", "RPCS_REPLAY_MAX", "RPCS_REPLAY_JOURNAL",
+            "RPCS_LOG_LEVEL", "RPCS_LOG_FLUSH_MS", "RPCS_LOG_FSYNC", "RPCS_LOG_MAX_BYTES", "RPCS_LOG_KEEP", "RPCS_LOG_QUEUE",
+            "RPCS_METRICS_PORT", "RPCS_RATE", "RPCS_BURST", "RPCS_RATE_GLOBAL", "RPCS_RATE_SLOTS",
+            "RPCS_EXEC_BACKEND", "RPCS_EXEC_HELPER_CMD", "RPCS_EXEC_TIMEOUT_MS", "RPCS_COALESCE_MS",
+            "RPCS_TCP_PORT", "RPCS_TCP_MAX_CONNS", "RPCS_TCP_IDLE_MS", "RPCS_JOBS_FILE",
+            "RPCS_AUDIT_DIR", "RPCS_AUDIT_KEEP_DAYS");
+    static final Set<String> RESTART_ONLY = Set.of(
+            "RPCS_PORT", "RPCS_UDP_ENGINE", "RPCS_BIND", "RPCS_UDP_WORKERS", "RPCS_ACK",
+            "RPCS_DISPATCH_THREADS", "RPCS_DISPATCH_QUEUE", "RPCS_REPLAY_MAX", "RPCS_REPLAY_JOURNAL",
+            "RPCS_LOG_FLUSH_MS", "RPCS_LOG_FSYNC", "RPCS_LOG_MAX_BYTES", "RPCS_LOG_KEEP", "RPCS_LOG_QUEUE",
+            "RPCS_METRICS_PORT", "RPCS_RATE_SLOTS", "RPCS_EXEC_BACKEND", "RPCS_EXEC_HELPER_CMD",
+            "RPCS_TCP_PORT", "RPCS_JOBS_FILE", "RPCS_AUDIT_DIR");
+
+    private static final String FILE = System.getenv("RPCS_CONFIG");
+    private static final List<BiConsumer<Snapshot, Snapshot>> LISTENERS = new CopyOnWriteArrayList<>();
+    private static volatile Snapshot current = load(true);
+
     private Config() {}
 
-    public static int port() {
-        String v = System.getenv("RPCS_PORT");
-        if (v == null|| v.isEmpty()) return 9097;
+    /** The current settings; read once and use the same snapshot for a whole operation. */
+    public static Snapshot get() { return current; }
+
+    // --- shorthands for the current snapshot ---
+
+    public static int port() { return current.port; }
+    public static String secret() { return current.secret; }
+    public static int clockSkewSeconds() { return current.clockSkewSeconds; }
+    /** UDP receive engine: "classic" (DatagramSocket) or "nio" (direct-buffer DatagramChannel). */
+    public static String udpEngine() { return current.udpEngine; }
+    /** Address the magic server binds to (e.g. 127.0.0.1 or a VPN address); null = all interfaces. */
+    public static String bindAddress() { return current.bindAddress; }
+    /** UDP receive threads, each with its own SO_REUSEPORT socket on {@link #port()}. */
+    public static int udpWorkers() { return current.udpWorkers; }
+    /** Send a signed ACK/NACK back for each authenticated magic packet (RPCS_ACK=1). */
+    public static boolean ack() { return current.ack; }
+    /** Worker threads that run commands dispatched from the network. */
+    public static int dispatchThreads() { return current.dispatchThreads; }
+    /** Pending dispatches allowed before new ones are rejected. */
+    public static int dispatchQueue() { return current.dispatchQueue; }
+    /** Hard cap on remembered nonces; new nonces are refused once it is reached. */
+    public static int replayMaxEntries() { return current.replayMaxEntries; }
+    /** Replay journal file; null = default location, "off" = no journal. */
+    public static String replayJournal() { return current.replayJournal; }
+    /** Minimum log level (debug, info, warn, error); null = default. */
+    public static String logLevel() { return current.logLevel; }
+    /** Max delay before queued log lines are written out (ms). */
+    public static long logFlushMillis() { return current.logFlushMillis; }
+    /** RPCS_LOG_FSYNC=1 forces every written batch to disk. */
+    public static boolean logFsync() { return current.logFsync; }
+    /** Log file size that triggers rotation; 0 disables rotation. */
+    public static long logMaxBytes() { return current.logMaxBytes; }
+    /** Rotated log files kept next to the active one. */
+    public static int logKeep() { return current.logKeep; }
+    /** Lines buffered for the log writer before new ones are dropped. */
+    public static int logQueue() { return current.logQueue; }
+    /** Loopback port for the Prometheus /metrics endpoint; 0 disables it. */
+    public static int metricsPort() { return current.metricsPort; }
+    /** Packets per second allowed from one source address before HMAC; 0 disables. */
+    public static int ratePerSource() { return current.ratePerSource; }
+    /** Burst allowance per source address. */
+    public static int rateBurst() { return current.rateBurst; }
+    /** Packets per second accepted from all sources together, before HMAC; 0 (the default) disables. */
+    public static int rateGlobal() { return current.rateGlobal; }
+    /** Size of the per-source rate-limit table. */
+    public static int rateSlots() { return current.rateSlots; }
+    /** How commands are run: "process" (fork each time) or "helper" (long-lived exec helper). */
+    public static String execBackend() { return current.execBackend; }
+    /** Command line that starts the exec helper (e.g. through sudo); null = bundled script via bash. */
+    public static String execHelperCommand() { return current.execHelperCommand; }
+    /** Exec timeout for commands that do not set their own (ms). */
+    public static long execTimeoutMillis() { return current.execTimeoutMillis; }
+    /** How long after a coalescible command finishes an identical request still joins it (ms). */
+    public static long coalesceMillis() { return current.coalesceMillis; }
+    /** TCP listener port for the same frames as UDP; 0 = off. */
+    public static int tcpPort() { return current.tcpPort; }
+    /** Open TCP connections allowed at once; more are closed on accept. */
+    public static int tcpMaxConnections() { return current.tcpMaxConnections; }
+    /** A TCP connection with no traffic for this long is closed (ms). */
+    public static long tcpIdleMillis() { return current.tcpIdleMillis; }
+    /** Scheduled jobs file; null = default location, "off" = jobs are not kept across restarts. */
+    public static String jobsFile() { return current.jobsFile; }
+    /** Audit segment directory; null = default location, "off" = no audit log. */
+    public static String auditDir() { return current.auditDir; }
+    /** Days of audit segments kept; older ones are deleted. */
+    public static int auditKeepDays() { return current.auditKeepDays; }
+
+    // --- reload ---
+
+    /** Called with (old, new) after every reload that changed something. */
+    public static void addListener(BiConsumer<Snapshot, Snapshot> listener) { LISTENERS.add(listener); }
+    public static void removeListener(BiConsumer<Snapshot, Snapshot> listener) { LISTENERS.remove(listener); }
 
-        try { return Integer.parseInt(v.trim()); } catch (NumberFormatException e) { return 9097; }
+    /**
+     * Re-reads env and the config file and publishes the result if anything changed.
+     * @return names of the changed keys (empty if none)
+     */
+    public static synchronized List<String> reload() {
+        Snapshot old = current, now = load(false);
+        List<String> changed = new ArrayList<>();
+        Set<String> all = new TreeSet<>(old.raw.keySet());
+        all.addAll(now.raw.keySet());
+        for (String k : KEYS) {
+            if (!Objects.equals(old.raw.get(k), now.raw.get(k))) changed.add(k);
+        }
+        for (String k : all) {
+            if (k.startsWith(Keyring.PREFIX) && !Objects.equals(old.raw.get(k), now.raw.get(k))) changed.add(k);
+        }
+        if (changed.isEmpty()) return changed;
+        current = now;
+        Log.info("[Config] reloaded, changed: {}", String.join(", ", changed));
+        List<String> restart = changed.stream().filter(RESTART_ONLY::contains).toList();
+        if (!restart.isEmpty()) Log.warn("[Config] restart needed for: {}", String.join(", ", restart));
+        for (BiConsumer<Snapshot, Snapshot> l : LISTENERS) {
+            try {
+                l.accept(old, now);
+            } catch (RuntimeException e) {
+                Log.error("[Config] listener failed: {}", e.getMessage());
+            }
+        }
+        return changed;
     }
 
-    public static String secret() {
-        String v = System.getenv("RPCS_SECRET");
-        if (v == null || v.isBlank()) {
-            System.err.println("RPCS_SECRET is null or empty");
-            return null;
+    /** Polls the config file (if any) and reloads when its mtime or size changes. */
+    public static void watch() {
+        if (FILE == null || FILE.isBlank()) return;
+        Path path = Path.of(FILE);
+        Thread.ofPlatform().name("rpcs-config-watch").daemon().start(() -> {
+            String seen = stamp(path);
+            while (true) {
+                try {
+                    Thread.sleep(2000);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                String now = stamp(path);
+                if (!now.equals(seen)) {
+                    seen = now;
+                    reload();
+                }
+            }
+        });
+    }
+
+    private static String stamp(Path p) {
+        try {
+            return Files.getLastModifiedTime(p).toMillis() + ":" + Files.size(p);
+        } catch (IOException e) {
+            return "missing";
         }
-        return v;
     }
 
-    public static int clockSkewSeconds() {
-        String v = System.getenv("RPCS_SKEW");
-        if (v == null || v.isBlank()) return 60; // default ±60s
-        try { return Integer.parseInt(v.trim()); } catch (NumberFormatException e) { return 60; }
+    // --- loading ---
+
+    /** @param startup report problems on stderr (Log may not be initialised yet; it reads Config) */
+    private static Snapshot load(boolean startup) {
+        Properties file = new Properties();
+        if (FILE != null && !FILE.isBlank()) {
+            try (Reader r = Files.newBufferedReader(Path.of(FILE))) {
+                file.load(r);
+            } catch (IOException e) {
+                String msg = "config file " + FILE + " not read: " + e.getMessage();
+                if (startup) System.err.println(msg);
+                else Log.warn("[Config] {}", msg);
+            }
+        }
+        Map<String, String> raw = new HashMap<>();
+        for (String k : KEYS) {
+            String v = file.getProperty(k);
+            if (v == null) v = System.getenv(k);
+            if (v != null && !v.isBlank()) raw.put(k, k.equals("RPCS_SECRET") ? v : v.trim());
+        }
+        for (String k : file.stringPropertyNames()) {
+            String v = file.getProperty(k);
+            if (k.startsWith(Keyring.PREFIX) && !v.isBlank()) raw.put(k, secretKey(k) ? v : v.trim());
+        }
+        Snapshot s = new Snapshot(raw);
+        for (String p : s.problems) {
+            if (startup) System.err.println(p);
+            else Log.warn("[Config] {}", p);
+        }
+        if (!startup && !Keyring.configured(s)) Log.warn("[Config] RPCS_SECRET is null or empty"); // at startup Main reports it
+        return s;
+    }
+
+    /** RPCS_SECRET and the {@code RPCS_KEY.<id>} entries hold secrets (kept verbatim, masked when shown). */
+    private static boolean secretKey(String k) {
+        return k.equals("RPCS_SECRET") || k.startsWith(Keyring.PREFIX) && k.indexOf('.', Keyring.PREFIX.length()) < 0;
+    }
+
+    /** One immutable, fully parsed set of settings. */
+    public static final class Snapshot {
+        final Map<String, String> raw;
+        /** Settings that were rejected, for {@code load} to report. */
+        final List<String> problems = new ArrayList<>();
+        public final int port;
+        public final String secret;
+        public final int clockSkewSeconds;
+        public final String udpEngine;
+        public final String bindAddress;
+        public final int udpWorkers;
+        public final boolean ack;
+        public final int dispatchThreads;
+        public final int dispatchQueue;
+        public final int replayMaxEntries;
+        public final String replayJournal;
+        public final String logLevel;
+        public final long logFlushMillis;
+        public final boolean logFsync;
+        public final long logMaxBytes;
+        public final int logKeep;
+        public final int logQueue;
+        public final int metricsPort;
+        public final int ratePerSource;
+        public final int rateBurst;
+        public final int rateGlobal;
+        public final int rateSlots;
+        public final String execBackend;
+        public final String execHelperCommand;
+        public final long execTimeoutMillis;
+        public final long coalesceMillis;
+        public final int tcpPort;
+        public final int tcpMaxConnections;
+        public final long tcpIdleMillis;
+        public final String jobsFile;
+        public final String auditDir;
+        public final int auditKeepDays;
+
+        Snapshot(Map<String, String> raw) {
+            this.raw = Map.copyOf(raw);
+            port = integer("RPCS_PORT", 9097, 1, 65535);
+            secret = raw.get("RPCS_SECRET");
+            clockSkewSeconds = integer("RPCS_SKEW", 60, 0, 86_400); // default ±60s
+            udpEngine = raw.getOrDefault("RPCS_UDP_ENGINE", "classic").toLowerCase(Locale.ROOT);
+            bindAddress = raw.get("RPCS_BIND");
+            udpWorkers = integer("RPCS_UDP_WORKERS", 1, 1, 256);
+            ack = "1".equals(raw.get("RPCS_ACK"));
+            dispatchThreads = integer("RPCS_DISPATCH_THREADS", 4, 1, 256);
+            dispatchQueue = integer("RPCS_DISPATCH_QUEUE", 64, 1, 65_536);
+            replayMaxEntries = integer("RPCS_REPLAY_MAX", 65536, 1, 1 << 24);
+            replayJournal = raw.get("RPCS_REPLAY_JOURNAL");
+            logLevel = raw.get("RPCS_LOG_LEVEL");
+            logFlushMillis = integer("RPCS_LOG_FLUSH_MS", 200, 0, 60_000);
+            logFsync = "1".equals(raw.get("RPCS_LOG_FSYNC"));
+            logMaxBytes = integer("RPCS_LOG_MAX_BYTES", 10 * 1024 * 1024, 0, Integer.MAX_VALUE);
+            logKeep = integer("RPCS_LOG_KEEP", 3, 0, 100);
+            logQueue = integer("RPCS_LOG_QUEUE", 8192, 16, 1 << 20);
+            metricsPort = integer("RPCS_METRICS_PORT", 0, 0, 65535);
+            ratePerSource = integer("RPCS_RATE", 20, 0, 1_000_000);
+            rateBurst = integer("RPCS_BURST", 40, 1, 1_000_000);
+            rateGlobal = integer("RPCS_RATE_GLOBAL", 0, 0, 10_000_000); // off: see RateLimiter
+            rateSlots = integer("RPCS_RATE_SLOTS", 4096, 1, 1 << 20);
+            execBackend = raw.getOrDefault("RPCS_EXEC_BACKEND", "process").toLowerCase(Locale.ROOT);
+            execHelperCommand = raw.get("RPCS_EXEC_HELPER_CMD");
+            execTimeoutMillis = integer("RPCS_EXEC_TIMEOUT_MS", 30_000, 1, Integer.MAX_VALUE);
+            coalesceMillis = integer("RPCS_COALESCE_MS", 1000, 0, 3_600_000);
+            tcpPort = integer("RPCS_TCP_PORT", 0, 0, 65535);
+            tcpMaxConnections = integer("RPCS_TCP_MAX_CONNS", 64, 1, 65_536);
+            tcpIdleMillis = integer("RPCS_TCP_IDLE_MS", 120_000, 1000, Integer.MAX_VALUE);
+            jobsFile = raw.get("RPCS_JOBS_FILE");
+            auditDir = raw.get("RPCS_AUDIT_DIR");
+            auditKeepDays = integer("RPCS_AUDIT_KEEP_DAYS", 90, 1, 36_500);
+        }
+
+        /** {@code def} when unset; a value that is not a number or outside {@code [min, max]} is rejected and noted. */
+        private int integer(String key, int def, int min, int max) {
+            String v = raw.get(key);
+            if (v == null) return def;
+            try {
+                int n = Integer.parseInt(v);
+                if (n >= min && n <= max) return n;
+            } catch (NumberFormatException e) {
+                // noted below
+            }
+            problems.add(key + "=" + v + " is not a number in " + min + ".." + max + ", using " + def);
+            return def;
+        }
+
+        /** Same settings, secret masked. */
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            List<String> keys = new ArrayList<>(KEYS);
+            raw.keySet().stream().filter(k -> k.startsWith(Keyring.PREFIX)).sorted().forEach(keys::add);
+            for (String k : keys) {
+                String v = raw.get(k);
+                if (v == null) continue;
+                sb.append(k).append('=').append(secretKey(k) ? "***" : v).append('\n');
+            }
+            return sb.toString();
+        }
     }
 }
@@ -2,15 +2,20 @@ package com.mirceone.core;
 
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 
 public final class Crypto {
+    private static final String ALG = "HmacSHA256";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
     private Crypto() {}
 
     public static String hmacSha256Hex(String secret, String data) {
         try {
-            Mac mac = Mac.getInstance("HmacSHA256");
-            mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+            Mac mac = Mac.getInstance(ALG);
+            mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALG));
             byte[] out = mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
             return toHex(out);
         } catch (Exception e) {
@@ -18,9 +23,154 @@ public final class Crypto {
         }
     }
 
+    /** Keyed HMAC-SHA256 for repeated use; build once per secret, not per message. */
+    public static Hmac hmac(String secret) {
+        return new Hmac(secret.getBytes(StandardCharsets.UTF_8));
+    }
+
     public static String toHex(byte[] bytes) {
-        StringBuilder sb = new StringBuilder(bytes.length * 2);
-        for (byte b : bytes) sb.append(String.format("%02x", b));
-        return sb.toString();
+        char[] out = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            out[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+            out[2 * i + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(out);
+    }
+
+    /** Hex digit value, or -1. */
+    private static int nibble(int c) {
+        if (c >= '0' && c <= '9') return c - '0';
+        if (c >= 'a' && c <= 'f') return c - 'a' + 10;
+        if (c >= 'A' && c <= 'F') return c - 'A' + 10;
+        return -1;
+    }
+
+    /**
+     * A keyed prototype {@link Mac}; each thread works on its own clone plus scratch
+     * buffers, so the verify path does no key setup and no allocation after first use.
+     * Methods taking a data buffer consume it (position moves to limit).
+     */
+    public static final class Hmac {
+        private final SecretKeySpec key;
+        private final Mac prototype;
+        private final ThreadLocal<State> local = ThreadLocal.withInitial(this::newState);
+
+        private Hmac(byte[] secret) {
+            this.key = new SecretKeySpec(secret, ALG);
+            this.prototype = init();
+        }
+
+        public int length() { return prototype.getMacLength(); }
+
+        /** This thread's keyed Mac (reset, ready for update). */
+        public Mac mac() { return local.get().mac; }
+
+        public byte[] sign(ByteBuffer data) {
+            Mac mac = mac();
+            mac.update(data);
+            return mac.doFinal();
+        }
+
+        /** Appends the raw MAC of {@code data} to {@code out} (no allocation). */
+        public void sign(ByteBuffer data, ByteBuffer out) {
+            State s = local.get();
+            digest(s, data);
+            out.put(s.digest);
+        }
+
+        /** Appends the MAC of {@code data} to {@code out} as lowercase hex ASCII (no allocation). */
+        public void signHex(ByteBuffer data, ByteBuffer out) {
+            State s = local.get();
+            digest(s, data);
+            for (byte b : s.digest) out.put((byte) HEX[(b >> 4) & 0xf]).put((byte) HEX[b & 0xf]);
+        }
+
+        /** Constant-time comparison of the MAC of {@code data} with raw {@code expected}. */
+        public boolean verify(ByteBuffer data, byte[] expected) {
+            State s = local.get();
+            digest(s, data);
+            return MessageDigest.isEqual(s.digest, expected);
+        }
+
+        /** Like {@link #verify} with the expected MAC given as hex (either case). */
+        public boolean verifyHex(ByteBuffer data, CharSequence hex) {
+            State s = local.get();
+            if (hex.length() != s.received.length * 2) return false;
+            for (int i = 0; i < s.received.length; i++) {
+                int hi = nibble(hex.charAt(2 * i)), lo = nibble(hex.charAt(2 * i + 1));
+                if ((hi | lo) < 0) return false;
+                s.received[i] = (byte) ((hi << 4) | lo);
+            }
+            digest(s, data);
+            return MessageDigest.isEqual(s.digest, s.received);
+        }
+
+        /**
+         * In-place variant for a frame held in one buffer: MAC of {@code buf[off, off+len)}
+         * checked against the hex at {@code buf[hexOff, hexOff+hexLen)}. Leaves the buffer's
+         * limit unchanged and its position at {@code off + len}.
+         */
+        public boolean verifyHex(ByteBuffer buf, int off, int len, int hexOff, int hexLen) {
+            State s = local.get();
+            if (hexLen != s.received.length * 2) return false;
+            for (int i = 0; i < s.received.length; i++) {
+                int hi = nibble(buf.get(hexOff + 2 * i)), lo = nibble(buf.get(hexOff + 2 * i + 1));
+                if ((hi | lo) < 0) return false;
+                s.received[i] = (byte) ((hi << 4) | lo);
+            }
+            int limit = buf.limit();
+            digest(s, buf.limit(off + len).position(off));
+            buf.limit(limit);
+            return MessageDigest.isEqual(s.digest, s.received);
+        }
+
+        /** In-place variant with a raw MAC of {@link #length()} bytes at {@code buf[macOff..]}. */
+        public boolean verify(ByteBuffer buf, int off, int len, int macOff) {
+            State s = local.get();
+            buf.get(macOff, s.received);
+            int limit = buf.limit();
+            digest(s, buf.limit(off + len).position(off));
+            buf.limit(limit);
+            return MessageDigest.isEqual(s.digest, s.received);
+        }
+
+        private static void digest(State s, ByteBuffer data) {
+            s.mac.update(data);
+            try {
+                s.mac.doFinal(s.digest, 0);
+            } catch (Exception e) {
+                throw new RuntimeException("HMAC-SHA256 failed: " + e.getMessage(), e);
+            }
+        }
+
+        private State newState() {
+            try {
+                return new State((Mac) prototype.clone());
+            } catch (CloneNotSupportedException e) {
+                return new State(init()); // provider without clone support: key once per thread
+            }
+        }
+
+        private Mac init() {
+            try {
+                Mac mac = Mac.getInstance(ALG);
+                mac.init(key);
+                return mac;
+            } catch (Exception e) {
+                throw new RuntimeException("HMAC-SHA256 init failed: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private static final class State {
+        final Mac mac;
+        final byte[] digest;
+        final byte[] received;
+
+        State(Mac mac) {
+            this.mac = mac;
+            this.digest = new byte[mac.getMacLength()];
+            this.received = new byte[mac.getMacLength()];
+        }
     }
 }
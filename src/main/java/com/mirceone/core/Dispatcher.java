@@ -0,0 +1,136 @@
+package com.mirceone.core;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import static com.mirceone.core.Log.*;
+
+/**
+ * Starts commands off the caller's thread on a fixed pool with a bounded queue. Commands
+ * that exec return as soon as the process is started, so a pool thread is not held while
+ * it runs; the {@link Command#maxConcurrent()} permit is, until it completes.
+ * Overflow policy: when the queue is full the new request is rejected (never blocks
+ * the caller) and counted. Commands with {@link Command#maxConcurrent()} > 0 are also
+ * rejected while that many of them are queued or running, except that a request joining
+ * an identical {@link Command#coalescible()} run is accepted as {@link Result#COALESCED}.
+ */
+public final class Dispatcher {
+    public enum Result { QUEUED, COALESCED, UNKNOWN, BUSY, OVERFLOW }
+
+    private final CommandRegistry registry;
+    private final Executor pool;
+    private final Map<Command, Semaphore> limits = new ConcurrentHashMap<>();
+    private final Metrics.Counter overflows = Metrics.counter("rpcs_dispatch_rejected_total", "reason", "overflow");
+    private final Metrics.Counter busy = Metrics.counter("rpcs_dispatch_rejected_total", "reason", "busy");
+    private final Metrics.Histogram wait = Metrics.histogram("rpcs_dispatch_wait_seconds");
+
+    public Dispatcher(CommandRegistry registry) {
+        this(registry, Config.dispatchThreads(), Config.dispatchQueue());
+    }
+
+    public Dispatcher(CommandRegistry registry, int threads, int queueSize) {
+        this(registry, new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueSize)),
+                Thread.ofVirtual().name("rpcs-dispatch-", 0).factory(),
+                new ThreadPoolExecutor.AbortPolicy()));
+    }
+
+    /** @param executor must reject (not block) when saturated */
+    public Dispatcher(CommandRegistry registry, Executor executor) {
+        this.registry = registry;
+        this.pool = executor;
+        Metrics.gauge("rpcs_dispatch_queue_depth", this::queued);
+    }
+
+    public Result submit(String name, String[] args) {
+        return submit(name, args, Origin.LOCAL);
+    }
+
+    /** @param origin who asked, recorded with the run in the {@link Audit} log */
+    public Result submit(String name, String[] args, Origin origin) {
+        return submit(name, args, origin, ok -> {});
+    }
+
+    /**
+     * @param done once a {@link Result#QUEUED} run (or the run a {@link Result#COALESCED} request
+     *             joined) has finished, whether it succeeded; not called for a rejected request
+     */
+    public Result submit(String name, String[] args, Origin origin, Consumer<Boolean> done) {
+        Command cmd = registry.find(name);
+        if (cmd == null) return Result.UNKNOWN;
+        CompletableFuture<Boolean> joined = CommandRegistry.join(cmd, args); // before the limit: it takes no slot
+        if (joined != null) {
+            joined.thenAccept(done);
+            return Result.COALESCED;
+        }
+        return enqueue(cmd.name(), List.of(cmd), () -> CommandRegistry.start(cmd, args, origin).thenApply(ok -> {
+            done.accept(ok);
+            return ok;
+        }));
+    }
+
+    /**
+     * Queues a whole batch. All its commands must exist, and it holds a
+     * {@link Command#maxConcurrent()} slot of each limited command it contains until it ends.
+     */
+    public Result submit(Batch batch) {
+        return submit(batch, Origin.LOCAL);
+    }
+
+    public Result submit(Batch batch, Origin origin) {
+        List<Command> cmds = new ArrayList<>(batch.steps().size());
+        for (Batch.Step step : batch.steps()) {
+            Command cmd = registry.find(step.name());
+            if (cmd == null) return Result.UNKNOWN;
+            cmds.add(cmd);
+        }
+        return enqueue(Batch.NAME, cmds, () -> CommandRegistry.start(batch, cmds, origin));
+    }
+
+    private Result enqueue(String what, List<Command> cmds, Supplier<CompletableFuture<?>> task) {
+        List<Semaphore> held = new ArrayList<>(1);
+        for (Command cmd : new LinkedHashSet<>(cmds)) {
+            if (cmd.maxConcurrent() <= 0) continue;
+            Semaphore limit = limits.computeIfAbsent(cmd, c -> new Semaphore(c.maxConcurrent()));
+            if (!limit.tryAcquire()) {
+                held.forEach(Semaphore::release);
+                busy.inc();
+                warn("[Dispatcher] busy, rejected cmd={}", what);
+                return Result.BUSY;
+            }
+            held.add(limit);
+        }
+        long queuedAt = System.nanoTime();
+        try {
+            pool.execute(() -> {
+                wait.observeSince(queuedAt);
+                CompletableFuture<?> done;
+                try {
+                    done = task.get();
+                } catch (Throwable e) { // a start that throws must not keep its permits
+                    held.forEach(Semaphore::release);
+                    error("[Dispatcher] {} failed to start: {}", what, e.toString());
+                    if (e instanceof Error err) throw err;
+                    return;
+                }
+                if (!held.isEmpty()) done.whenComplete((v, e) -> held.forEach(Semaphore::release));
+            });
+            return Result.QUEUED;
+        } catch (RejectedExecutionException e) {
+            held.forEach(Semaphore::release);
+            overflows.inc();
+            warn("[Dispatcher] queue full, rejected cmd={}", what);
+            return Result.OVERFLOW;
+        }
+    }
+
+    public long overflowCount() { return overflows.get(); }
+    public long busyCount() { return busy.get(); }
+    public int queued() { return pool instanceof ThreadPoolExecutor tpe ? tpe.getQueue().size() : 0; }
+
+    public void shutdown() {
+        if (pool instanceof ExecutorService es) es.shutdown();
+    }
+}
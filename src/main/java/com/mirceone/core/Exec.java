@@ -1,28 +1,245 @@
 package com.mirceone.core;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
 
 import static com.mirceone.core.Log.*;
 
+/**
+ * Runs external commands, either by forking directly ({@code RPCS_EXEC_BACKEND=process}, the
+ * default) or through a long-lived {@link ExecHelper} ({@code helper}). The helper only runs the
+ * argv lists that registered commands declare in {@link Command#execs()}; anything else, and
+ * a helper that cannot take the request, falls back to a direct fork.
+ * <p>
+ * {@link #start} never blocks: the returned future completes from {@link Process#onExit()}, so
+ * no thread waits on the process. Stdout and stderr are read line by line into {@link Log}
+ * (and echoed to the console), at most {@value #MAX_LINES} lines of {@value #MAX_LINE} bytes
+ * per stream. Every run has a timeout: the process gets SIGTERM, then SIGKILL (with its
+ * descendants) {@value #KILL_GRACE_MILLIS} ms later, and the run fails with exit code
+ * {@value #TIMEOUT_EXIT}.
+ */
 public final class Exec {
+    public static final int TIMEOUT_EXIT = 124;
+    static final long KILL_GRACE_MILLIS = 2000;
+    static final int MAX_LINE = 1024;
+    static final int MAX_LINES = 200;
+    private static final Metrics.Histogram DURATION = Metrics.histogram("rpcs_exec_seconds");
+    private static final Metrics.Counter FALLBACKS = Metrics.counter("rpcs_exec_helper_fallbacks_total");
+    private static final Metrics.Counter TIMEOUTS = Metrics.counter("rpcs_exec_timeouts_total");
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("rpcs-exec-timer").daemon().factory());
+
+    private static volatile Map<List<String>, Long> timeouts = Map.of();
+    private static volatile ExecHelper helper;
+
     private Exec() {}
 
+    /**
+     * Learns the argv lists and timeouts of {@code registry}'s commands and, with
+     * {@code RPCS_EXEC_BACKEND=helper}, starts the exec helper with them as its allowlist.
+     */
+    public static void configure(CommandRegistry registry) {
+        configure(registry.commands());
+    }
+
+    /** Same for a set of commands, e.g. the single one a one-shot run loads. */
+    public static void configure(Collection<Command> commands) {
+        Map<List<String>, Long> t = new HashMap<>();
+        for (Command c : commands) {
+            for (List<String> argv : c.execs()) t.put(List.copyOf(argv), c.timeoutMillis());
+        }
+        timeouts = Map.copyOf(t);
+        String backend = Config.execBackend();
+        if (!backend.equals("helper")) {
+            if (!backend.equals("process")) warn("[Exec] unknown RPCS_EXEC_BACKEND '{}', using process", backend);
+            return;
+        }
+        String launch = Config.execHelperCommand();
+        ExecHelper h = new ExecHelper(launch == null ? List.of() : List.of(launch.trim().split("\\s+")), t.keySet());
+        try {
+            h.start();
+        } catch (IOException e) {
+            warn("[Exec] helper start failed: {}", e.getMessage());
+        }
+        helper = h;
+    }
+
+    // --- blocking ---
+
+    /** Runs {@code cmd} with its registered timeout, else {@code RPCS_EXEC_TIMEOUT_MS}, and waits for it. */
     public static void run(String... cmd)
             throws IOException, InterruptedException, CommandFailedException {
-        ProcessBuilder pb = new ProcessBuilder(cmd);
-        pb.redirectOutput(ProcessBuilder.Redirect.INHERIT);
-        pb.redirectError(ProcessBuilder.Redirect.INHERIT);
-        Process p = pb.start();
-        int code = p.waitFor();
-        if (code != 0) {
-            throw new CommandFailedException("Command failed (exit " + code + "): "
-                    + String.join(" ", cmd), code);
+        await(start(List.of(cmd)));
+    }
+
+    public static void run(long timeoutMillis, String... cmd)
+            throws IOException, InterruptedException, CommandFailedException {
+        await(start(timeoutMillis, List.of(cmd)));
+    }
+
+    /** Waits for a {@link #start} future, rethrowing its failure as it was raised. */
+    public static void await(Future<?> run)
+            throws IOException, InterruptedException, CommandFailedException {
+        try {
+            run.get();
+        } catch (ExecutionException e) {
+            Throwable c = e.getCause();
+            if (c instanceof CommandFailedException f) throw f;
+            if (c instanceof IOException io) throw io;
+            if (c instanceof RuntimeException r) throw r;
+            throw new IOException(c);
         }
-        info("exec ok: " + String.join(" ", cmd));
+    }
+
+    // --- non-blocking ---
+
+    /** Starts {@code argv} with its registered timeout, else {@code RPCS_EXEC_TIMEOUT_MS}. */
+    public static CompletableFuture<Void> start(List<String> argv) {
+        Long t = timeouts.get(argv);
+        return start(t != null && t > 0 ? t : Config.execTimeoutMillis(), argv);
+    }
+
+    /**
+     * Starts {@code argv} without waiting for it.
+     * @return completes when the process has exited and its output is read; fails with
+     *         {@link CommandFailedException} on a non-zero exit or timeout, or {@link IOException}
+     *         if it could not be started
+     */
+    public static CompletableFuture<Void> start(long timeoutMillis, List<String> argv) {
+        long t0 = System.nanoTime();
+        Output out = new Output(argv.getFirst());
+        CompletableFuture<Integer> code = null;
+        ExecHelper h = helper;
+        if (h != null && h.allows(argv)) {
+            try {
+                code = h.submit(argv, timeoutMillis).thenApply(r -> {
+                    r.stdout().lines().forEach(l -> out.line(false, l));
+                    r.stderr().lines().forEach(l -> out.line(true, l));
+                    return r.exitCode();
+                });
+            } catch (IOException e) {
+                FALLBACKS.inc();
+                warn("[Exec] helper unavailable ({}), forking instead", e.getMessage());
+            }
+        }
+        if (code == null) code = fork(argv, timeoutMillis, out);
+        return code.thenApply(c -> {
+            DURATION.observeSince(t0);
+            Metrics.counter("rpcs_exec_exit_total", "code", Integer.toString(c)).inc();
+            out.finish();
+            if (c != 0) {
+                if (c == TIMEOUT_EXIT) TIMEOUTS.inc();
+                String why = c == TIMEOUT_EXIT ? "timed out after " + timeoutMillis + " ms" : "exit " + c;
+                String err = out.lastError();
+                throw new CompletionException(new CommandFailedException("Command failed (" + why + "): "
+                        + String.join(" ", argv) + (err == null ? "" : ": " + err), c));
+            }
+            info(() -> "exec ok: " + String.join(" ", argv));
+            return null;
+        });
+    }
+
+    private static CompletableFuture<Integer> fork(List<String> argv, long timeoutMillis, Output out) {
+        Process p;
+        try {
+            p = new ProcessBuilder(argv).redirectInput(ProcessBuilder.Redirect.from(new File("/dev/null"))).start();
+        } catch (IOException | RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        CompletableFuture<Void> drained = CompletableFuture.allOf(
+                drain(p.getInputStream(), false, out), drain(p.getErrorStream(), true, out));
+        ScheduledFuture<?> timeout = TIMER.schedule(() -> terminate(p, out), timeoutMillis, TimeUnit.MILLISECONDS);
+        // a descendant that outlives the process can hold the pipes open; stop waiting for it after a second
+        return p.onExit().thenCompose(x -> drained.completeOnTimeout(null, 1, TimeUnit.SECONDS)).thenApply(v -> {
+            timeout.cancel(false);
+            return out.timedOut ? TIMEOUT_EXIT : p.exitValue();
+        });
+    }
+
+    private static void terminate(Process p, Output out) {
+        if (!p.isAlive()) return;
+        out.timedOut = true;
+        p.destroy();
+        TIMER.schedule(() -> {
+            p.descendants().forEach(ProcessHandle::destroyForcibly);
+            p.destroyForcibly();
+        }, KILL_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /** Reads {@code in} line by line into {@code out} on a virtual thread; lines are cut at {@link #MAX_LINE} bytes. */
+    private static CompletableFuture<Void> drain(InputStream in, boolean err, Output out) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        Thread.ofVirtual().name("rpcs-exec-drain").start(() -> {
+            byte[] buf = new byte[4096], line = new byte[MAX_LINE];
+            int len = 0;
+            boolean cut = false;
+            try (in) {
+                for (int n; (n = in.read(buf)) > 0; ) {
+                    for (int i = 0; i < n; i++) {
+                        byte b = buf[i];
+                        if (b == '\n') {
+                            out.line(err, text(line, len, cut));
+                            len = 0;
+                            cut = false;
+                        } else if (len < MAX_LINE) {
+                            line[len++] = b;
+                        } else {
+                            cut = true;
+                        }
+                    }
+                }
+                if (len > 0 || cut) out.line(err, text(line, len, cut));
+            } catch (IOException | UncheckedIOException e) {
+                // process gone and pipe closed under us
+            } finally {
+                done.complete(null);
+            }
+        });
+        return done;
+    }
+
+    private static String text(byte[] line, int len, boolean cut) {
+        if (len > 0 && line[len - 1] == '\r') len--;
+        String s = new String(line, 0, len, StandardCharsets.UTF_8);
+        return cut ? s + "..." : s;
+    }
+
+    /** Output of one run: logged as it arrives, bounded per stream; keeps the last stderr line for the error. */
+    private static final class Output {
+        private final String prog;
+        private int outLines, errLines;
+        private String lastError;
+        volatile boolean timedOut;
+
+        Output(String prog) { this.prog = prog; }
+
+        synchronized void line(boolean err, String s) {
+            if ((err ? ++errLines : ++outLines) > MAX_LINES) return;
+            if (err) {
+                if (!s.isBlank()) lastError = s;
+                System.err.println(s);
+                warn("[Exec] {} stderr: {}", prog, s);
+            } else {
+                System.out.println(s);
+                info("[Exec] {}: {}", prog, s);
+            }
+        }
+
+        synchronized void finish() {
+            int dropped = Math.max(0, outLines - MAX_LINES) + Math.max(0, errLines - MAX_LINES);
+            if (dropped > 0) warn("[Exec] {}: {} output lines not logged", prog, dropped);
+        }
+
+        synchronized String lastError() { return lastError; }
     }
 
     public static final class CommandFailedException extends Exception {
         public final int exitCode;
         public CommandFailedException(String msg, int exitCode) { super(msg); this.exitCode = exitCode; }
     }
-}
\ No newline at end of file
+}
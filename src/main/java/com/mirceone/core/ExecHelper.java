@@ -0,0 +1,185 @@
+package com.mirceone.core;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.mirceone.core.Log.*;
+
+/**
+ * Client for the long-lived exec helper coprocess ({@code exec-helper.sh}): requests go
+ * over its stdin, and each reply (exit code, then the captured stdout and stderr) comes back
+ * over its stdout, so running a command forks a small shell instead of the daemon JVM. The
+ * helper keeps output in a private directory of its own, never one the daemon names, since
+ * it may run with more privileges than the daemon. It only runs argv lists from the allowlist
+ * it was started with, and so does this class (anything else is refused here, before it
+ * reaches the helper). A helper that exits fails its own in-flight requests and is restarted
+ * on the next request, at most once per {@link #RESTART_DELAY_MILLIS}.
+ */
+final class ExecHelper {
+    static final long RESTART_DELAY_MILLIS = 5000;
+    static final int MAX_OUTPUT = 64 * 1024;
+    private static final Metrics.Counter STARTS = Metrics.counter("rpcs_exec_helper_starts_total");
+
+    /** Outcome of one helper request. */
+    record Result(int exitCode, String stdout, String stderr) {
+        boolean timedOut() { return exitCode == 124; }
+    }
+
+    /** One helper process and the requests written to it. */
+    private static final class Proc {
+        final Process process;
+        final OutputStream in;
+        final Map<Long, CompletableFuture<Result>> pending = new ConcurrentHashMap<>();
+
+        Proc(Process process, OutputStream in) {
+            this.process = process;
+            this.in = in;
+        }
+    }
+
+    private final List<String> launch;
+    private final Set<List<String>> allowlist;
+    private final AtomicLong ids = new AtomicLong();
+
+    private Proc current;
+    private long lastStart;
+
+    /** @param launch helper command line; empty = the bundled script via bash */
+    ExecHelper(List<String> launch, Set<List<String>> allowlist) {
+        this.launch = launch;
+        this.allowlist = Set.copyOf(allowlist);
+    }
+
+    boolean allows(List<String> argv) { return allowlist.contains(argv); }
+
+    /**
+     * Sends {@code argv} to the helper without waiting for it.
+     * @return completes with the result; fails with {@link IOException} if the helper exits or
+     *         stops answering first (the command may or may not have run)
+     * @throws IOException if the request could not be sent (not run; safe to fork instead)
+     */
+    CompletableFuture<Result> submit(List<String> argv, long timeoutMillis) throws IOException {
+        if (!allows(argv)) throw new IllegalArgumentException("not allowlisted: " + String.join(" ", argv));
+        long id = ids.incrementAndGet();
+        CompletableFuture<Result> f = new CompletableFuture<>();
+        Proc p = send(id, argv, timeoutMillis, f);
+        // the helper enforces the timeout (then kills after 2s more); the extra wait only covers a hung helper
+        return f.orTimeout(timeoutMillis + 5000, TimeUnit.MILLISECONDS)
+                .handle((r, e) -> {
+                    p.pending.remove(id);
+                    if (e == null) return r;
+                    throw new CompletionException(e instanceof TimeoutException
+                            ? new IOException("exec helper did not answer request " + id) : e);
+                });
+    }
+
+    /** Starts the helper now rather than on the first request. */
+    synchronized void start() throws IOException { ensureRunning(); }
+
+    /** @return the helper the request went to; {@code f} is in its pending map */
+    private synchronized Proc send(long id, List<String> argv, long timeoutMillis,
+                                   CompletableFuture<Result> f) throws IOException {
+        Proc p = ensureRunning();
+        p.pending.put(id, f);
+        try {
+            field(p.in, Long.toString(id));
+            field(p.in, String.format(Locale.ROOT, "%.3f", timeoutMillis / 1000.0));
+            field(p.in, Integer.toString(argv.size()));
+            for (String a : argv) field(p.in, a);
+            p.in.flush();
+            return p;
+        } catch (IOException | RuntimeException e) {
+            p.pending.remove(id);
+            if (e instanceof IOException) p.process.destroyForcibly();
+            throw e;
+        }
+    }
+
+    private Proc ensureRunning() throws IOException {
+        if (current != null && current.process.isAlive()) return current;
+        long now = System.currentTimeMillis();
+        if (now - lastStart < RESTART_DELAY_MILLIS) throw new IOException("exec helper down, restart pending");
+        lastStart = now;
+        List<String> cmd = launch.isEmpty() ? List.of("bash", "-c", script(), "rpcs-exec-helper") : launch;
+        ProcessBuilder pb = new ProcessBuilder(cmd);
+        pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+        Process process = pb.start();
+        OutputStream out = new BufferedOutputStream(process.getOutputStream());
+        field(out, Integer.toString(allowlist.size()));
+        for (List<String> argv : allowlist) {
+            field(out, Integer.toString(argv.size()));
+            for (String a : argv) field(out, a);
+        }
+        out.flush();
+        Proc p = new Proc(process, out);
+        current = p;
+        STARTS.inc();
+        Thread.ofPlatform().name("rpcs-exec-helper-reader").daemon().start(() -> read(p));
+        info("[Exec] helper started (pid {}, {} allowlisted commands)", process.pid(), allowlist.size());
+        return p;
+    }
+
+    /**
+     * Completes {@code p}'s pending requests from its replies ({@code "id code outLen errLen\n"}
+     * and the output bytes); fails the rest when it exits. Requests sent to a newer helper are
+     * not touched.
+     */
+    private void read(Proc p) {
+        try (InputStream r = new BufferedInputStream(p.process.getInputStream())) {
+            String line;
+            while ((line = line(r)) != null) {
+                String[] f = line.split(" ");
+                if (f.length != 4) throw new IOException("bad reply: " + line);
+                int outLen = Integer.parseInt(f[2]), errLen = Integer.parseInt(f[3]);
+                if (outLen < 0 || errLen < 0 || outLen > MAX_OUTPUT || errLen > MAX_OUTPUT) {
+                    throw new IOException("bad reply: " + line);
+                }
+                String stdout = text(r, outLen), stderr = text(r, errLen);
+                CompletableFuture<Result> done = p.pending.remove(Long.parseLong(f[0]));
+                if (done != null) done.complete(new Result(Integer.parseInt(f[1]), stdout, stderr));
+            }
+        } catch (IOException | RuntimeException e) {
+            warn("[Exec] helper output unreadable: {}", e.getMessage());
+        }
+        p.process.destroyForcibly();
+        warn("[Exec] helper exited; it is restarted on the next command");
+        IOException gone = new IOException("exec helper exited");
+        p.pending.values().forEach(f -> f.completeExceptionally(gone));
+    }
+
+    /** One header line (ASCII, at most 128 bytes); null at end of stream. */
+    private static String line(InputStream r) throws IOException {
+        StringBuilder sb = new StringBuilder(32);
+        for (int b; (b = r.read()) != '\n'; ) {
+            if (b < 0) {
+                if (sb.isEmpty()) return null;
+                throw new EOFException("truncated reply");
+            }
+            if (sb.length() >= 128) throw new IOException("reply header too long");
+            sb.append((char) b);
+        }
+        return sb.toString();
+    }
+
+    private static String text(InputStream r, int len) throws IOException {
+        byte[] b = r.readNBytes(len);
+        if (b.length < len) throw new EOFException("truncated reply");
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static void field(OutputStream out, String s) throws IOException {
+        if (s.indexOf('\0') >= 0) throw new IllegalArgumentException("NUL in exec argument");
+        out.write(s.getBytes(StandardCharsets.UTF_8));
+        out.write(0);
+    }
+
+    private static String script() throws IOException {
+        try (InputStream s = ExecHelper.class.getResourceAsStream("exec-helper.sh")) {
+            if (s == null) throw new FileNotFoundException("exec-helper.sh resource missing");
+            return new String(s.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.mirceone.core;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.*;
+
+import static com.mirceone.core.Log.*;
+
+/**
+ * Per-device keys, looked up by the key id a frame carries.
+ * <p>
+ * Keys come from the config file, one group per device:
+ * <pre>
+ * RPCS_KEY.phone=&lt;secret&gt;
+ * RPCS_KEY.phone.commands=suspend,reboot     (optional; default all commands)
+ * RPCS_KEY.phone.not_before=2026-01-01       (optional; date, ISO instant or epoch seconds, UTC)
+ * RPCS_KEY.phone.not_after=2026-12-31T18:00:00Z
+ * </pre>
+ * Frames without a key id use the key named {@value #DEFAULT}, which is {@code RPCS_SECRET}
+ * unless {@code RPCS_KEY.default} is set. To rotate a device, add its new key under a new id,
+ * move the device over, then give the old id a {@code not_after} (or remove it).
+ * <p>
+ * Every key holds an already-keyed {@link Crypto.Hmac}; lookup is one probe sequence
+ * over the id bytes in the received buffer, with no allocation and no key setup.
+ * A keyring is immutable: a config reload builds a new one.
+ */
+public final class Keyring {
+    public static final String DEFAULT = "default";
+    public static final int MAX_ID = 32;
+    static final String PREFIX = "RPCS_KEY.";
+
+    private final Key[] table;
+    private final List<Key> keys;
+    private final Key defaultKey;
+
+    private Keyring(List<Key> keys) {
+        this.keys = List.copyOf(keys);
+        this.table = new Key[Integer.highestOneBit(Math.max(1, keys.size()) * 4 - 1) << 1];
+        for (Key k : keys) {
+            int mask = table.length - 1;
+            int i = hash(ByteBuffer.wrap(k.idBytes), 0, k.idBytes.length) & mask;
+            while (table[i] != null) i = (i + 1) & mask;
+            table[i] = k;
+        }
+        Key def = null;
+        for (Key k : keys) if (k.id.equals(DEFAULT)) def = k;
+        this.defaultKey = def;
+    }
+
+    /** A keyring holding only {@code secret} as the default key (all commands, no expiry); empty if blank. */
+    public static Keyring single(String secret) {
+        if (secret == null || secret.isBlank()) return new Keyring(List.of());
+        return new Keyring(List.of(new Key(DEFAULT, secret, null, Long.MIN_VALUE, Long.MAX_VALUE)));
+    }
+
+    /** Builds the keyring described by {@code s}; malformed entries are logged and left out (fail closed). */
+    public static Keyring from(Config.Snapshot s) {
+        Map<String, Map<String, String>> groups = new TreeMap<>();
+        for (Map.Entry<String, String> e : s.raw.entrySet()) {
+            if (!e.getKey().startsWith(PREFIX)) continue;
+            String rest = e.getKey().substring(PREFIX.length());
+            int dot = rest.indexOf('.');
+            String id = dot < 0 ? rest : rest.substring(0, dot);
+            groups.computeIfAbsent(id, k -> new HashMap<>()).put(dot < 0 ? "" : rest.substring(dot + 1), e.getValue());
+        }
+        if (s.secret != null) {
+            Map<String, String> def = groups.computeIfAbsent(DEFAULT, k -> new HashMap<>());
+            if (def.containsKey("")) warn("[Keyring] RPCS_KEY.default is set; RPCS_SECRET ignored");
+            else def.put("", s.secret);
+        }
+        List<Key> keys = new ArrayList<>();
+        for (Map.Entry<String, Map<String, String>> g : groups.entrySet()) {
+            Key k = parse(g.getKey(), g.getValue());
+            if (k != null) keys.add(k);
+        }
+        return new Keyring(keys);
+    }
+
+    private static Key parse(String id, Map<String, String> attrs) {
+        if (!validId(id)) {
+            warn("[Keyring] key id '{}' skipped: use 1-{} of [A-Za-z0-9_-]", id, MAX_ID);
+            return null;
+        }
+        String secret = attrs.get("");
+        if (secret == null) {
+            warn("[Keyring] key '{}' skipped: no secret ({}{}=...)", id, PREFIX, id);
+            return null;
+        }
+        for (String a : attrs.keySet()) {
+            if (!a.isEmpty() && !a.equals("commands") && !a.equals("not_before") && !a.equals("not_after")) {
+                warn("[Keyring] key '{}': unknown attribute '{}' ignored", id, a);
+            }
+        }
+        Set<String> commands = null;
+        if (attrs.containsKey("commands")) {
+            commands = new HashSet<>();
+            for (String c : attrs.get("commands").split(",")) {
+                if (!c.isBlank()) commands.add(c.trim().toLowerCase(Locale.ROOT));
+            }
+        }
+        try {
+            long from = attrs.containsKey("not_before") ? epochSeconds(attrs.get("not_before"), false) : Long.MIN_VALUE;
+            long until = attrs.containsKey("not_after") ? epochSeconds(attrs.get("not_after"), true) : Long.MAX_VALUE;
+            return new Key(id, secret, commands, from, until);
+        } catch (RuntimeException e) {
+            warn("[Keyring] key '{}' skipped: bad validity time ({})", id, e.getMessage());
+            return null;
+        }
+    }
+
+    /** Epoch seconds, ISO instant, or a date (start of day UTC; end of day when {@code endOfDay}). */
+    private static long epochSeconds(String v, boolean endOfDay) {
+        if (v.chars().allMatch(Character::isDigit)) return Long.parseLong(v);
+        if (v.length() == 10) {
+            LocalDate d = LocalDate.parse(v);
+            return (endOfDay ? d.plusDays(1) : d).atStartOfDay(ZoneOffset.UTC).toEpochSecond() - (endOfDay ? 1 : 0);
+        }
+        return Instant.parse(v).getEpochSecond();
+    }
+
+    static boolean validId(String id) {
+        if (id.isEmpty() || id.length() > MAX_ID) return false;
+        for (int i = 0; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_' || c == '-')) return false;
+        }
+        return true;
+    }
+
+    /** True if the two snapshots describe the same keys (secret and every {@code RPCS_KEY.*} entry). */
+    public static boolean sameKeys(Config.Snapshot a, Config.Snapshot b) {
+        if (!Objects.equals(a.secret, b.secret)) return false;
+        for (String k : a.raw.keySet()) {
+            if (k.startsWith(PREFIX) && !Objects.equals(a.raw.get(k), b.raw.get(k))) return false;
+        }
+        for (String k : b.raw.keySet()) {
+            if (k.startsWith(PREFIX) && !a.raw.containsKey(k)) return false;
+        }
+        return true;
+    }
+
+    /** Whether {@code s} names any key at all (cheap; does not build the keyring). */
+    public static boolean configured(Config.Snapshot s) {
+        return s.secret != null || s.raw.keySet().stream().anyMatch(k -> k.startsWith(PREFIX));
+    }
+
+    public boolean isEmpty() { return keys.isEmpty(); }
+
+    public List<Key> keys() { return keys; }
+
+    /**
+     * Key whose id is {@code buf[off, off+len)}; {@code len == 0} means the default key.
+     * @return null if there is no such key
+     */
+    public Key find(ByteBuffer buf, int off, int len) {
+        if (len == 0) return defaultKey;
+        int mask = table.length - 1;
+        for (int i = hash(buf, off, len) & mask; ; i = (i + 1) & mask) {
+            Key k = table[i];
+            if (k == null) return null;
+            if (k.matches(buf, off, len)) return k;
+        }
+    }
+
+    /** @param id key id, or null/empty for the default key */
+    public Key find(String id) {
+        byte[] b = (id == null || id.isEmpty() ? DEFAULT : id).getBytes(StandardCharsets.UTF_8);
+        return find(ByteBuffer.wrap(b), 0, b.length);
+    }
+
+    private static int hash(ByteBuffer buf, int off, int len) {
+        int h = 0x811c9dc5;
+        for (int i = off, end = off + len; i < end; i++) h = (h ^ (buf.get(i) & 0xff)) * 0x01000193;
+        return h ^ (h >>> 16);
+    }
+
+    /** One device's key and what it may do. */
+    public static final class Key {
+        private final String id;
+        private final byte[] idBytes;
+        private final Crypto.Hmac hmac;
+        private final Set<String> commands;
+        private final long notBefore, notAfter;
+        private final Metrics.Counter accepted, denied, badMac;
+        private volatile long lastSeen;
+
+        Key(String id, String secret, Set<String> commands, long notBefore, long notAfter) {
+            this.id = id;
+            this.idBytes = id.getBytes(StandardCharsets.US_ASCII);
+            this.hmac = Crypto.hmac(secret);
+            this.commands = commands == null ? null : Set.copyOf(commands);
+            this.notBefore = notBefore;
+            this.notAfter = notAfter;
+            this.accepted = Metrics.counter("rpcs_key_packets_total", "key", id, "result", "accepted");
+            this.denied = Metrics.counter("rpcs_key_packets_total", "key", id, "result", "denied");
+            this.badMac = Metrics.counter("rpcs_key_packets_total", "key", id, "result", "bad_hmac");
+        }
+
+        public String id() { return id; }
+        public Crypto.Hmac hmac() { return hmac; }
+
+        /** Whether the key may be used at {@code epochSeconds}. */
+        public boolean validAt(long epochSeconds) { return epochSeconds >= notBefore && epochSeconds <= notAfter; }
+
+        /** @param command lowercased command name */
+        public boolean allows(String command) { return commands == null || commands.contains(command); }
+
+        /** Records an authenticated packet that was let through to dispatch. */
+        public void accepted(long epochSeconds) {
+            accepted.inc();
+            lastSeen = epochSeconds;
+        }
+
+        /** Records a packet refused by the validity window or command list. */
+        public void denied() { denied.inc(); }
+
+        public void badMac() { badMac.inc(); }
+
+        /** Epoch seconds of the last accepted packet; 0 if none since startup. */
+        public long lastSeen() { return lastSeen; }
+
+        boolean matches(ByteBuffer buf, int off, int len) {
+            if (len != idBytes.length) return false;
+            for (int i = 0; i < len; i++) if (buf.get(off + i) != idBytes[i]) return false;
+            return true;
+        }
+
+        /** One line for the REPL {@code keys} command. */
+        @Override
+        public String toString() {
+            return String.format("%-16s commands=%s valid=%s..%s accepted=%d denied=%d bad_hmac=%d last=%s",
+                    id, commands == null ? "*" : String.join(",", new TreeSet<>(commands)),
+                    notBefore == Long.MIN_VALUE ? "" : Instant.ofEpochSecond(notBefore),
+                    notAfter == Long.MAX_VALUE ? "" : Instant.ofEpochSecond(notAfter),
+                    accepted.get(), denied.get(), badMac.get(),
+                    lastSeen == 0 ? "-" : Instant.ofEpochSecond(lastSeen));
+        }
+    }
+}
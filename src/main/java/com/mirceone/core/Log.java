@@ -1,15 +1,18 @@
 package com.mirceone.core;
 
-import java.io.IOException;
-import java.io.PrintWriter;
 import java.nio.file.*;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayDeque;
 import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.function.Supplier;
 
 public final class Log {
+    public enum Level { DEBUG, INFO, WARN, ERROR }
+
     private static final int DEFAULT_CAP = 1000;
     private static final DateTimeFormatter TS = DateTimeFormatter
             .ofPattern("yyyy-MM-dd HH:mm:ss")
@@ -20,20 +23,81 @@ public final class Log {
 
     // File path can be overridden with RPCS_LOG_FILE
     private static final Path FILE = resolveLogPath();
+    private static final LogWriter WRITER = FILE == null ? null : new LogWriter(FILE,
+            Config.logQueue(), Config.logFlushMillis(), Config.logFsync(),
+            Config.logMaxBytes(), Config.logKeep());
+    static { Metrics.gauge("rpcs_log_dropped_lines", Log::droppedLines); }
+
+    // Minimum level; RPCS_LOG_LEVEL at startup and on config reload, `loglevel` in the REPL
+    private static volatile Level minLevel = parseLevel(Config.logLevel(), Level.INFO);
+    static {
+        Config.addListener((old, now) -> {
+            if (!Objects.equals(old.logLevel, now.logLevel)) setLevel(parseLevel(now.logLevel, Level.INFO));
+        });
+    }
+    private static volatile boolean fileOutput = true;
+    private static volatile Stamp stamp = new Stamp(Long.MIN_VALUE, "");
 
     private Log() {}
 
-    public static void debug(String msg) { append("DEBUG", msg); }
-    public static void info(String msg)  { append("INFO", msg);  }
-    public static void warn(String msg)  { append("WARN", msg);  }
-    public static void error(String msg) { append("ERROR", msg); }
+    // Overloads: plain message, lazily built message, or "{}" placeholders.
+    // Each checks the level first so suppressed calls format nothing.
+    public static void debug(String msg) { log(Level.DEBUG, msg); }
+    public static void info(String msg)  { log(Level.INFO, msg);  }
+    public static void warn(String msg)  { log(Level.WARN, msg);  }
+    public static void error(String msg) { log(Level.ERROR, msg); }
+
+    public static void debug(Supplier<String> msg) { if (enabled(Level.DEBUG)) append(Level.DEBUG, msg.get()); }
+    public static void info(Supplier<String> msg)  { if (enabled(Level.INFO))  append(Level.INFO, msg.get());  }
+    public static void warn(Supplier<String> msg)  { if (enabled(Level.WARN))  append(Level.WARN, msg.get());  }
+    public static void error(Supplier<String> msg) { if (enabled(Level.ERROR)) append(Level.ERROR, msg.get()); }
+
+    public static void debug(String fmt, Object a) { if (enabled(Level.DEBUG)) append(Level.DEBUG, format(fmt, a)); }
+    public static void info(String fmt, Object a)  { if (enabled(Level.INFO))  append(Level.INFO, format(fmt, a));  }
+    public static void warn(String fmt, Object a)  { if (enabled(Level.WARN))  append(Level.WARN, format(fmt, a));  }
+    public static void error(String fmt, Object a) { if (enabled(Level.ERROR)) append(Level.ERROR, format(fmt, a)); }
+
+    public static void debug(String fmt, Object a, Object b) { if (enabled(Level.DEBUG)) append(Level.DEBUG, format(fmt, a, b)); }
+    public static void info(String fmt, Object a, Object b)  { if (enabled(Level.INFO))  append(Level.INFO, format(fmt, a, b));  }
+    public static void warn(String fmt, Object a, Object b)  { if (enabled(Level.WARN))  append(Level.WARN, format(fmt, a, b));  }
+    public static void error(String fmt, Object a, Object b) { if (enabled(Level.ERROR)) append(Level.ERROR, format(fmt, a, b)); }
 
-    private static void append(String level, String msg) {
-        String line = String.format("%s [%s] %s", TS.format(Instant.now()), level, msg);
+    public static void debug(String fmt, Object... args) { if (enabled(Level.DEBUG)) append(Level.DEBUG, format(fmt, args)); }
+    public static void info(String fmt, Object... args)  { if (enabled(Level.INFO))  append(Level.INFO, format(fmt, args));  }
+    public static void warn(String fmt, Object... args)  { if (enabled(Level.WARN))  append(Level.WARN, format(fmt, args));  }
+    public static void error(String fmt, Object... args) { if (enabled(Level.ERROR)) append(Level.ERROR, format(fmt, args)); }
+
+    public static boolean enabled(Level level) { return level.compareTo(minLevel) >= 0; }
+    public static Level level() { return minLevel; }
+    public static void setLevel(Level level) { minLevel = level; }
+
+    /** @return the level named by {@code s} (case-insensitive), or {@code def} */
+    public static Level parseLevel(String s, Level def) {
+        if (s == null || s.isBlank()) return def;
+        try { return Level.valueOf(s.trim().toUpperCase(Locale.ROOT)); } catch (IllegalArgumentException e) { return def; }
+    }
+
+    public static void log(Level level, String msg) {
+        if (enabled(level)) append(level, msg);
+    }
+
+    /** Replaces each "{}" in {@code fmt} with the next argument. */
+    static String format(String fmt, Object... args) {
+        StringBuilder sb = new StringBuilder(fmt.length() + 32);
+        int from = 0, arg = 0, at;
+        while (arg < args.length && (at = fmt.indexOf("{}", from)) >= 0) {
+            sb.append(fmt, from, at).append(args[arg++]);
+            from = at + 2;
+        }
+        return sb.append(fmt, from, fmt.length()).toString();
+    }
+
+    private static void append(Level level, String msg) {
+        String line = timestamp() + " [" + level + "] " + msg;
         synchronized (LOCK) {
             if (RING.size() == DEFAULT_CAP) RING.removeFirst();
             RING.addLast(line);
-            if (FILE != null) writeLine(FILE, line);
+            if (WRITER != null && fileOutput) WRITER.offer(line); // never blocks on disk I/O
         }
     }
 
@@ -45,18 +109,32 @@ public final class Log {
         }
     }
 
-    private static void writeLine(Path file, String line) {
-        try {
-            Files.createDirectories(file.getParent());
-            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(
-                    file, StandardOpenOption.CREATE, StandardOpenOption.APPEND))) {
-                out.println(line);
-            }
-        } catch (IOException ignored) {
-            // swallow file I/O errors; in-memory ring still works
+    /** Turns the file copy on or off; the in-memory ring is always kept. */
+    static void fileOutput(boolean on) { fileOutput = on; }
+
+    /** Lines dropped because the file writer's queue was full. */
+    public static long droppedLines() {
+        return WRITER == null ? 0 : WRITER.dropped();
+    }
+
+    /** Flushes pending lines to the log file; call once on shutdown. */
+    public static void close() {
+        if (WRITER != null) WRITER.close();
+    }
+
+    /** Formatted wall-clock second, recomputed only when the second changes. */
+    private static String timestamp() {
+        long sec = System.currentTimeMillis() / 1000;
+        Stamp s = stamp;
+        if (s.epochSecond != sec) {
+            s = new Stamp(sec, TS.format(Instant.ofEpochSecond(sec)));
+            stamp = s;
         }
+        return s.text;
     }
 
+    private record Stamp(long epochSecond, String text) {}
+
     private static Path resolveLogPath() {
         String p = System.getenv("RPCS_LOG_FILE");
         if (p != null && !p.isBlank()) return Paths.get(p);
@@ -0,0 +1,156 @@
+package com.mirceone.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Background appender behind {@link Log}: callers only offer lines to a bounded queue;
+ * one thread drains it in batches into a long-lived {@link FileChannel}.
+ * <ul>
+ *   <li>a batch is written once {@code flushMillis} has passed since its first line (0 = at once)</li>
+ *   <li>{@code fsync} forces each batch to disk before the next one is collected</li>
+ *   <li>the file is rotated to {@code .1 .. .keep} when it would exceed {@code maxBytes}</li>
+ *   <li>lines offered while the queue is full are dropped and counted</li>
+ * </ul>
+ */
+final class LogWriter implements Runnable {
+    private static final String STOP = new String("<stop>"); // identity sentinel
+    private static final int MAX_BATCH = 1024;
+
+    private final Path file;
+    private final BlockingQueue<String> queue;
+    private final long flushMillis;
+    private final boolean fsync;
+    private final long maxBytes;
+    private final int keep;
+    private final LongAdder dropped = new LongAdder();
+    private final ByteBuffer out = ByteBuffer.allocate(64 * 1024);
+    private final Thread thread;
+
+    private FileChannel ch;
+    private long size;
+
+    LogWriter(Path file, int queueSize, long flushMillis, boolean fsync, long maxBytes, int keep) {
+        this.file = file;
+        this.queue = new ArrayBlockingQueue<>(Math.max(16, queueSize));
+        this.flushMillis = flushMillis;
+        this.fsync = fsync;
+        this.maxBytes = maxBytes;
+        this.keep = keep;
+        this.thread = new Thread(this, "rpcs-log-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void offer(String line) {
+        if (!queue.offer(line)) dropped.increment();
+    }
+
+    long dropped() { return dropped.sum(); }
+
+    /** Writes everything queued so far and stops the writer thread. */
+    void close() {
+        try {
+            if (!queue.offer(STOP, 1, TimeUnit.SECONDS)) return;
+            thread.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        List<String> batch = new ArrayList<>(MAX_BATCH);
+        try {
+            while (true) {
+                String first = queue.take();
+                boolean stop = first == STOP;
+                if (!stop) {
+                    batch.add(first);
+                    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushMillis);
+                    while (batch.size() < MAX_BATCH) {
+                        long wait = deadline - System.nanoTime();
+                        String next = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+                        if (next == null) break;
+                        if (next == STOP) { stop = true; break; }
+                        batch.add(next);
+                    }
+                    write(batch);
+                    batch.clear();
+                }
+                if (stop) break;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closeChannel();
+        }
+    }
+
+    private void write(List<String> lines) {
+        try {
+            if (ch == null) open();
+            for (String line : lines) {
+                byte[] b = line.getBytes(StandardCharsets.UTF_8);
+                if (out.remaining() < b.length + 1) drain();
+                if (b.length + 1 > out.capacity()) b = Arrays.copyOf(b, out.capacity() - 1);
+                out.put(b).put((byte) '\n');
+            }
+            drain();
+            if (fsync) ch.force(false);
+        } catch (IOException e) {
+            // swallow file I/O errors; in-memory ring still works. Reopen on the next batch.
+            out.clear();
+            closeChannel();
+        }
+    }
+
+    private void drain() throws IOException {
+        out.flip();
+        if (maxBytes > 0 && size > 0 && size + out.remaining() > maxBytes) rotate();
+        while (out.hasRemaining()) size += ch.write(out);
+        out.clear();
+    }
+
+    private void open() throws IOException {
+        Path dir = file.getParent();
+        if (dir != null) Files.createDirectories(dir);
+        ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        size = ch.size();
+    }
+
+    /** rpcs.log -> rpcs.log.1 -> ... -> rpcs.log.{keep}; the oldest is deleted. */
+    private void rotate() throws IOException {
+        closeChannel();
+        if (keep <= 0) {
+            Files.deleteIfExists(file);
+        } else {
+            Files.deleteIfExists(sibling(keep));
+            for (int i = keep - 1; i >= 1; i--) {
+                if (Files.exists(sibling(i))) Files.move(sibling(i), sibling(i + 1));
+            }
+            Files.move(file, sibling(1));
+        }
+        open();
+    }
+
+    private Path sibling(int n) {
+        return file.resolveSibling(file.getFileName() + "." + n);
+    }
+
+    private void closeChannel() {
+        if (ch == null) return;
+        try { ch.close(); } catch (IOException ignored) {}
+        ch = null;
+    }
+}
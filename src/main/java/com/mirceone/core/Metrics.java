@@ -0,0 +1,185 @@
+package com.mirceone.core;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Process-wide metrics: striped counters, fixed-bucket latency histograms and gauges.
+ * Look a metric up once (e.g. into a static field) and record into it on the hot path;
+ * recording never locks or allocates. Rendered as Prometheus text or a short summary.
+ */
+public final class Metrics {
+    private static final Map<String, Object> ALL = new ConcurrentHashMap<>();
+
+    /** Histogram upper bounds in microseconds (50µs .. 30s). */
+    private static final long[] BOUNDS_MICROS = {
+            50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000, 25_000, 50_000,
+            100_000, 250_000, 500_000, 1_000_000, 2_500_000, 5_000_000, 10_000_000, 30_000_000
+    };
+
+    private Metrics() {}
+
+    /** @param labels alternating label names and values */
+    public static Counter counter(String name, String... labels) {
+        return (Counter) ALL.computeIfAbsent(key(name, labels), k -> new Counter(name));
+    }
+
+    public static Histogram histogram(String name, String... labels) {
+        return (Histogram) ALL.computeIfAbsent(key(name, labels), k -> new Histogram(name));
+    }
+
+    /** Registers (or replaces) a gauge read at render time. */
+    public static void gauge(String name, LongSupplier value, String... labels) {
+        ALL.put(key(name, labels), new Gauge(name, value));
+    }
+
+    public static final class Counter {
+        final String family;
+        private final LongAdder value = new LongAdder();
+
+        private Counter(String family) { this.family = family; }
+
+        public void inc() { value.increment(); }
+        public void add(long n) { value.add(n); }
+        public long get() { return value.sum(); }
+    }
+
+    public static final class Histogram {
+        final String family;
+        private final LongAdder[] buckets = new LongAdder[BOUNDS_MICROS.length + 1];
+        private final LongAdder sumNanos = new LongAdder();
+
+        private Histogram(String family) {
+            this.family = family;
+            for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+        }
+
+        public void observeNanos(long nanos) {
+            long micros = nanos / 1000;
+            int i = 0;
+            while (i < BOUNDS_MICROS.length && micros > BOUNDS_MICROS[i]) i++;
+            buckets[i].increment();
+            sumNanos.add(nanos);
+        }
+
+        /** Records the time elapsed since {@code startNanos} (a {@link System#nanoTime()} value). */
+        public void observeSince(long startNanos) { observeNanos(System.nanoTime() - startNanos); }
+
+        public long count() {
+            long n = 0;
+            for (LongAdder b : buckets) n += b.sum();
+            return n;
+        }
+
+        /** Upper bound (µs) of the bucket holding quantile {@code q}; -1 if empty or beyond the last bound. */
+        public long percentileMicros(double q) {
+            long[] counts = new long[buckets.length];
+            long total = 0;
+            for (int i = 0; i < buckets.length; i++) total += counts[i] = buckets[i].sum();
+            if (total == 0) return -1;
+            long rank = (long) Math.ceil(q * total), seen = 0;
+            for (int i = 0; i < BOUNDS_MICROS.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return BOUNDS_MICROS[i];
+            }
+            return -1;
+        }
+    }
+
+    private record Gauge(String family, LongSupplier value) {}
+
+    // --- rendering ---
+
+    /** Prometheus text exposition format (version 0.0.4). */
+    public static String render() {
+        StringBuilder sb = new StringBuilder(4096);
+        String lastFamily = null;
+        for (Map.Entry<String, Object> e : new TreeMap<>(ALL).entrySet()) {
+            String key = e.getKey();
+            Object m = e.getValue();
+            String family = family(m);
+            if (!family.equals(lastFamily)) {
+                sb.append("# TYPE ").append(family).append(' ').append(type(m)).append('\n');
+                lastFamily = family;
+            }
+            switch (m) {
+                case Counter c -> sb.append(key).append(' ').append(c.get()).append('\n');
+                case Gauge g -> sb.append(key).append(' ').append(g.value().getAsLong()).append('\n');
+                case Histogram h -> renderHistogram(sb, key, h);
+                default -> {}
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void renderHistogram(StringBuilder sb, String key, Histogram h) {
+        String labels = key.length() > h.family.length() ? key.substring(h.family.length() + 1, key.length() - 1) + "," : "";
+        long cumulative = 0;
+        for (int i = 0; i < h.buckets.length; i++) {
+            cumulative += h.buckets[i].sum();
+            String le = i < BOUNDS_MICROS.length ? seconds(BOUNDS_MICROS[i] * 1000) : "+Inf";
+            sb.append(h.family).append("_bucket{").append(labels).append("le=\"").append(le).append("\"} ")
+                    .append(cumulative).append('\n');
+        }
+        String suffix = labels.isEmpty() ? "" : "{" + labels.substring(0, labels.length() - 1) + "}";
+        sb.append(h.family).append("_sum").append(suffix).append(' ').append(seconds(h.sumNanos.sum())).append('\n');
+        sb.append(h.family).append("_count").append(suffix).append(' ').append(cumulative).append('\n');
+    }
+
+    /** One line per metric; histograms as count / p50 / p99. For the REPL `stats` command. */
+    public static String summary() {
+        StringBuilder sb = new StringBuilder(2048);
+        for (Map.Entry<String, Object> e : new TreeMap<>(ALL).entrySet()) {
+            String value = switch (e.getValue()) {
+                case Counter c -> Long.toString(c.get());
+                case Gauge g -> Long.toString(g.value().getAsLong());
+                case Histogram h -> "count=" + h.count()
+                        + " p50=" + micros(h.percentileMicros(0.50))
+                        + " p99=" + micros(h.percentileMicros(0.99));
+                default -> "?";
+            };
+            sb.append(String.format("  %-60s %s%n", e.getKey(), value));
+        }
+        return sb.toString();
+    }
+
+    private static String key(String name, String... labels) {
+        if (labels.length == 0) return name;
+        StringBuilder sb = new StringBuilder(name).append('{');
+        for (int i = 0; i + 1 < labels.length; i += 2) {
+            if (i > 0) sb.append(',');
+            sb.append(labels[i]).append("=\"").append(labels[i + 1].replace("\"", "\\\"")).append('"');
+        }
+        return sb.append('}').toString();
+    }
+
+    private static String family(Object m) {
+        return switch (m) {
+            case Counter c -> c.family;
+            case Histogram h -> h.family;
+            case Gauge g -> g.family();
+            default -> "";
+        };
+    }
+
+    private static String type(Object m) {
+        return switch (m) {
+            case Counter c -> "counter";
+            case Histogram h -> "histogram";
+            default -> "gauge";
+        };
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.6f", nanos / 1e9);
+    }
+
+    private static String micros(long us) {
+        if (us < 0) return "-";
+        return us >= 1000 ? (us / 1000) + "ms" : us + "us";
+    }
+}
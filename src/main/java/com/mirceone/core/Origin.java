@@ -0,0 +1,12 @@
+package com.mirceone.core;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Who asked for a command: the source, key id and nonce of an authenticated packet, or
+ * {@link #LOCAL} for the REPL and one-shot runs. Carried from {@link Dispatcher} through
+ * {@link CommandRegistry} so that run records in the {@link Audit} log name their requester.
+ */
+public record Origin(InetSocketAddress source, String key, String nonce) {
+    public static final Origin LOCAL = new Origin(null, "", null);
+}
@@ -1,26 +1,258 @@
 package com.mirceone.core;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
 import java.time.Instant;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Arrays;
+import java.util.function.LongConsumer;
 
+/**
+ * Remembers nonces for at least {@code ttl} so a captured packet cannot be replayed.
+ * <p>
+ * Nonces are reduced to seeded 64-bit hashes and kept in a ring of time buckets, each an
+ * open-addressing {@code long} set. Inserting touches one bucket; a whole bucket expires
+ * at once when its time slot comes round again, so cost per packet does not grow with the
+ * number of live nonces. When {@code maxEntries} is reached new nonces are rejected
+ * (fail closed) until buckets expire, rather than forgetting nonces early.
+ * <p>
+ * The key space can be split into independently locked stripes so several receive
+ * threads rarely contend; a given nonce always maps to the same stripe, so replays are
+ * caught whichever thread sees the copy.
+ * <p>
+ * {@link #retime} changes the ttl in place: remembered nonces move into the newest bucket
+ * of the new time scale, so none are forgotten early because of the change.
+ * <p>
+ * With a {@link ReplayJournal} attached ({@link #restore}) every accepted key is also
+ * appended to the journal, and the keys still inside the ttl are reloaded at startup.
+ */
 public final class ReplayCache {
-    private final Map<String, Long> seen = new ConcurrentHashMap<>();
-    private final long ttlMillis;
+    private static final int RING = 8;
+    private static final Metrics.Counter EVICTED = Metrics.counter("rpcs_replay_evictions_total");
+    private static final Metrics.Counter FULL = Metrics.counter("rpcs_replay_rejected_full_total");
 
-    public ReplayCache(long ttlSeconds) { this.ttlMillis = ttlSeconds * 1000L; }
+    private final Stripe[] stripes;
+    private final int stripeShift;
+    private long seed = new SecureRandom().nextLong(); // replaced by the journal's before first use
+    private ReplayJournal journal;
+    private volatile long ttlSeconds;
+
+    public ReplayCache(long ttlSeconds) { this(ttlSeconds, Config.replayMaxEntries()); }
+
+    public ReplayCache(long ttlSeconds, int maxEntries) { this(ttlSeconds, maxEntries, 1); }
+
+    /** @param stripes lock stripes (rounded up to a power of two); {@code maxEntries} is shared out evenly */
+    public ReplayCache(long ttlSeconds, int maxEntries, int stripes) {
+        this.ttlSeconds = ttlSeconds;
+        int n = Integer.highestOneBit(Math.max(1, stripes - 1) << 1);
+        this.stripes = new Stripe[n];
+        this.stripeShift = 64 - Integer.numberOfTrailingZeros(n); // high bits pick the stripe, low bits the slot
+        int perStripe = (int) Math.min(Integer.MAX_VALUE, ((long) maxEntries + n - 1) / n);
+        for (int i = 0; i < n; i++) this.stripes[i] = new Stripe(perStripe, bucketMillis(ttlSeconds));
+    }
+
+    /** Switches to a new ttl, keeping every nonce remembered so far for at least the new ttl. */
+    public void retime(long ttlSeconds) {
+        this.ttlSeconds = ttlSeconds;
+        long bucketMillis = bucketMillis(ttlSeconds);
+        long now = System.currentTimeMillis();
+        for (Stripe s : stripes) s.retime(bucketMillis, now);
+    }
+
+    /**
+     * Takes over {@code journal}'s hash seed, reloads its keys that are still within the ttl
+     * and appends every key accepted from now on. Call once, before the cache is used.
+     * @return the number of keys restored
+     */
+    public int restore(ReplayJournal journal) {
+        this.seed = journal.seed();
+        long now = System.currentTimeMillis();
+        long ttl = ttlSeconds;
+        int n = journal.load(now / 1000 - ttl, now / 1000 + ttl, (key, ts) -> stripe(key).accept(key, ts * 1000));
+        this.journal = journal;
+        return n;
+    }
+
+    // RING - 1 full buckets must cover the ttl; the newest one is still filling
+    private static long bucketMillis(long ttlSeconds) {
+        return Math.max(1, (ttlSeconds * 1000L + RING - 2) / (RING - 1));
+    }
 
     /** @return true if nonce is fresh (accepted), false if seen/replayed */
     public boolean accept(String nonce) {
-        long now = System.currentTimeMillis();
-        purge(now);
-        return seen.putIfAbsent(nonce, now) == null;
+        return accept(key(nonce));
+    }
+
+    /** @param key a nonce key from {@link #key} */
+    public boolean accept(long key) {
+        return accept(key, System.currentTimeMillis());
+    }
+
+    boolean accept(long key, long nowMillis) {
+        if (!stripe(key).accept(key, nowMillis)) return false;
+        ReplayJournal j = journal;
+        if (j != null) j.append(key, nowMillis / 1000);
+        return true;
     }
 
-    private void purge(long now) {
-        long cutoff = now - ttlMillis;
-        seen.entrySet().removeIf(e -> e.getValue() < cutoff);
+    private Stripe stripe(long key) {
+        return stripes.length == 1 ? stripes[0] : stripes[(int) (key >>> stripeShift)];
+    }
+
+    /** Most keys the cache can hold ({@code maxEntries} rounded up to a multiple of the stripe count). */
+    public int capacity() {
+        return (int) Math.min(Integer.MAX_VALUE, (long) stripes[0].maxEntries * stripes.length);
+    }
+
+    public int size() {
+        int n = 0;
+        for (Stripe s : stripes) n += s.size();
+        return n;
+    }
+
+    public long evictions() {
+        long n = 0;
+        for (Stripe s : stripes) n += s.evictions();
+        return n;
+    }
+
+    public long rejectedFull() {
+        long n = 0;
+        for (Stripe s : stripes) n += s.rejectedFull();
+        return n;
+    }
+
+    /** One ring of time buckets behind one lock. */
+    private static final class Stripe {
+        private final int maxEntries;
+        private final long[] bucketEpoch = new long[RING];
+        private final LongSet[] buckets = new LongSet[RING];
+        private long bucketMillis;
+        private int size;
+        private long evictions;
+        private long rejectedFull;
+
+        Stripe(int maxEntries, long bucketMillis) {
+            this.maxEntries = maxEntries;
+            this.bucketMillis = bucketMillis;
+            Arrays.fill(bucketEpoch, Long.MIN_VALUE);
+            for (int i = 0; i < RING; i++) buckets[i] = new LongSet();
+        }
+
+        synchronized boolean accept(long key, long nowMillis) {
+            long epoch = nowMillis / bucketMillis;
+            for (int i = 0; i < RING; i++) {
+                if (bucketEpoch[i] <= epoch - RING) expire(i);
+                else if (buckets[i].contains(key)) return false;
+            }
+            if (size >= maxEntries) {
+                rejectedFull++;
+                FULL.inc();
+                return false;
+            }
+            int slot = (int) Math.floorMod(epoch, (long) RING);
+            bucketEpoch[slot] = epoch;
+            buckets[slot].add(key);
+            size++;
+            return true;
+        }
+
+        synchronized void retime(long newBucketMillis, long nowMillis) {
+            if (newBucketMillis == bucketMillis) return;
+            long old = nowMillis / bucketMillis;
+            LongSet live = new LongSet();
+            for (int i = 0; i < RING; i++) {
+                if (bucketEpoch[i] <= old - RING) expire(i);
+                else buckets[i].forEach(live::add);
+                buckets[i].clear();
+                bucketEpoch[i] = Long.MIN_VALUE;
+            }
+            bucketMillis = newBucketMillis;
+            long epoch = nowMillis / bucketMillis;
+            int slot = (int) Math.floorMod(epoch, (long) RING);
+            buckets[slot] = live;
+            bucketEpoch[slot] = epoch;
+            size = live.size;
+        }
+
+        private void expire(int slot) {
+            LongSet b = buckets[slot];
+            if (b.size > 0) {
+                size -= b.size;
+                evictions += b.size;
+                EVICTED.add(b.size);
+                b.clear();
+            }
+            bucketEpoch[slot] = Long.MIN_VALUE;
+        }
+
+        synchronized int size() { return size; }
+        synchronized long evictions() { return evictions; }
+        synchronized long rejectedFull() { return rejectedFull; }
+    }
+
+    public long key(String nonce) {
+        byte[] b = nonce.getBytes(StandardCharsets.UTF_8);
+        return key(ByteBuffer.wrap(b), 0, b.length);
+    }
+
+    /** Seeded 64-bit hash (FNV-1a + murmur3 finalizer) of {@code buf[off, off+len)}; the seed is per cache (or journal). */
+    public long key(ByteBuffer buf, int off, int len) {
+        long h = seed ^ 0xcbf29ce484222325L;
+        for (int i = off, end = off + len; i < end; i++) {
+            h = (h ^ (buf.get(i) & 0xff)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33; h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33; h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h; // 0 marks an empty LongSet slot
     }
 
     public static long nowEpochSeconds() { return Instant.now().getEpochSecond(); }
+
+    /** Linear-probing set of non-zero longs. */
+    private static final class LongSet {
+        private static final int INITIAL = 64;
+        private long[] table = new long[INITIAL];
+        private int size;
+
+        boolean contains(long k) {
+            int mask = table.length - 1;
+            for (int i = (int) k & mask; ; i = (i + 1) & mask) {
+                long v = table[i];
+                if (v == k) return true;
+                if (v == 0) return false;
+            }
+        }
+
+        void add(long k) {
+            if ((size + 1) * 2 > table.length) grow();
+            int mask = table.length - 1;
+            int i = (int) k & mask;
+            while (table[i] != 0) {
+                if (table[i] == k) return;
+                i = (i + 1) & mask;
+            }
+            table[i] = k;
+            size++;
+        }
+
+        private void grow() {
+            long[] old = table;
+            table = new long[old.length * 2];
+            size = 0;
+            for (long v : old) if (v != 0) add(v);
+        }
+
+        void forEach(LongConsumer action) {
+            for (long v : table) if (v != 0) action.accept(v);
+        }
+
+        void clear() {
+            // shrink back after a burst instead of keeping the peak allocation around
+            if (table.length > INITIAL * 4) table = new long[INITIAL];
+            else Arrays.fill(table, 0);
+            size = 0;
+        }
+    }
 }
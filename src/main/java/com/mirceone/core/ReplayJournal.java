@@ -0,0 +1,186 @@
+package com.mirceone.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.mirceone.core.Log.*;
+
+/**
+ * Fixed-size, memory-mapped ring of accepted nonce keys, so a restart does not reopen the
+ * replay window. Appending is a few stores into the mapping (no syscall); the kernel writes
+ * the pages back, and {@link #force()} (run about once a second and on close) bounds what a
+ * power loss can take with it.
+ * <pre>
+ * header (64 bytes): "RPCSRPL1" | int slots | int record size (16) | long hash seed | zero padding
+ * record (16 bytes): long key | int epoch seconds | int check
+ * </pre>
+ * The file is {@code 64 + 16 * slots} bytes and never grows. The check is a hash of key and
+ * time, written last: a record torn by a crash (or never written) fails it and is ignored
+ * on load, so at worst the last few nonces before a power loss are forgotten. A header that
+ * does not match (other version or slot count) starts a fresh journal.
+ * <p>
+ * The hash seed of the {@link ReplayCache} lives in the header, because keys are only
+ * comparable under the seed they were made with.
+ */
+public final class ReplayJournal implements Closeable {
+    static final int HEADER = 64;
+    static final int RECORD = 16;
+    private static final byte[] MAGIC = {'R', 'P', 'C', 'S', 'R', 'P', 'L', '1'};
+
+    private final Path file;
+    private final FileChannel ch;
+    private final MappedByteBuffer map;
+    private final int slots;
+    private final long seed;
+    private final AtomicLong cursor = new AtomicLong();
+    private volatile boolean dirty;
+
+    private ReplayJournal(Path file, FileChannel ch, MappedByteBuffer map, int slots, long seed) {
+        this.file = file;
+        this.ch = ch;
+        this.map = map;
+        this.slots = slots;
+        this.seed = seed;
+    }
+
+    /** Opens (or creates, owner-only) the journal at {@code file} with room for {@code slots} records. */
+    public static ReplayJournal open(Path file, int slots) throws IOException {
+        if (file.getParent() != null) Files.createDirectories(file.getParent());
+        if (!Files.exists(file)) {
+            try {
+                Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+            } catch (UnsupportedOperationException e) {
+                Files.createFile(file);
+            }
+        }
+        long size = HEADER + (long) RECORD * slots;
+        FileChannel ch = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            boolean fresh = ch.size() != size;
+            MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_WRITE, 0, size); // extends a short file
+            map.order(ByteOrder.BIG_ENDIAN);
+            byte[] magic = new byte[MAGIC.length];
+            map.get(0, magic);
+            if (!fresh && (!Arrays.equals(magic, MAGIC) || map.getInt(8) != slots || map.getInt(12) != RECORD)) fresh = true;
+            if (fresh) {
+                if (ch.size() > size) ch.truncate(size);
+                for (long i = 0; i < size; i += 8) map.putLong((int) i, 0);
+                map.put(0, MAGIC).putInt(8, slots).putInt(12, RECORD).putLong(16, new SecureRandom().nextLong());
+                map.force();
+                info("[ReplayJournal] new journal {} ({} slots)", file, slots);
+            }
+            return new ReplayJournal(file, ch, map, slots, map.getLong(16));
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    /** Default location next to the log file: {@code ~/.local/share/rpcs/replay.journal}; null without a home directory. */
+    public static Path defaultPath() {
+        String home = System.getProperty("user.home");
+        if (home == null || home.isBlank()) return null;
+        return Paths.get(home, ".local", "share", "rpcs", "replay.journal");
+    }
+
+    public Path file() { return file; }
+    public int slots() { return slots; }
+
+    /** Seed the keys in this journal were hashed with. */
+    long seed() { return seed; }
+
+    /** Record consumer for {@link #load}. */
+    interface Visitor {
+        void record(long key, long epochSeconds);
+    }
+
+    /**
+     * Calls {@code visitor} for every intact record with time in {@code [from, to]}, oldest first,
+     * and moves the append cursor past the newest record in the file. Records go in with
+     * non-decreasing times, so those of the newest second are one run (maybe wrapping around the
+     * end of the ring); the cursor goes after its last record, never onto one that is still live.
+     * @return the number of records visited
+     */
+    int load(long from, long to, Visitor visitor) {
+        long[] found = new long[slots * 2];
+        long[] stamp = new long[slots]; // -1: empty or torn
+        int n = 0;
+        long newestTs = -1;
+        for (int i = 0; i < slots; i++) {
+            int p = HEADER + i * RECORD;
+            long key = map.getLong(p);
+            int raw = map.getInt(p + 8);
+            stamp[i] = -1;
+            if (key == 0 || map.getInt(p + 12) != check(key, raw)) continue; // empty or torn
+            long ts = stamp[i] = Integer.toUnsignedLong(raw);
+            newestTs = Math.max(newestTs, ts);
+            if (ts < from || ts > to) continue;
+            found[2 * n] = ts; found[2 * n + 1] = key; n++;
+        }
+        int last = -1; // stays -1 if the journal is empty, or one second fills the whole ring
+        for (int i = 0; i < slots && newestTs >= 0; i++) {
+            if (stamp[i] == newestTs && stamp[(i + 1) % slots] != newestTs) { last = i; break; }
+        }
+        cursor.set(last + 1L);
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        long[] f = found;
+        Arrays.sort(order, (a, b) -> Long.compare(f[2 * a], f[2 * b]));
+        for (int i : order) visitor.record(found[2 * i + 1], found[2 * i]);
+        return n;
+    }
+
+    /** Stores one accepted key; overwrites the oldest record once the ring is full. Thread-safe. */
+    void append(long key, long epochSeconds) {
+        int p = HEADER + (int) Math.floorMod(cursor.getAndIncrement(), (long) slots) * RECORD;
+        int ts = (int) epochSeconds; // unsigned: good until 2106
+        map.putLong(p, key);
+        map.putInt(p + 8, ts);
+        map.putInt(p + 12, check(key, ts)); // last, so a torn record fails the check
+        dirty = true;
+    }
+
+    /** Writes dirty pages back to disk (msync); a no-op when nothing was appended since the last call. */
+    public void force() {
+        if (!dirty) return;
+        dirty = false;
+        map.force();
+    }
+
+    /** Forces the mapping out about once per {@code millis} on a daemon thread, until closed. */
+    public void syncEvery(long millis) {
+        Thread.ofPlatform().name("rpcs-replay-sync").daemon().start(() -> {
+            while (ch.isOpen()) {
+                try {
+                    Thread.sleep(millis);
+                    force();
+                } catch (InterruptedException e) {
+                    return;
+                } catch (RuntimeException e) {
+                    warn("[ReplayJournal] sync failed: {}", e.getMessage());
+                }
+            }
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        ch.close();
+    }
+
+    private static int check(long key, int ts) {
+        long h = key ^ (ts * 0x9E3779B97F4A7C15L);
+        h ^= h >>> 33; h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h | 1;
+    }
+}
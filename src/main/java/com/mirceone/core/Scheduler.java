@@ -0,0 +1,581 @@
+package com.mirceone.core;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.mirceone.core.Log.*;
+
+/**
+ * Runs commands later: "suspend in 30m", "poweroff at 02:00". Jobs sit in a hashed timing
+ * wheel of {@value #SLOTS} one-second slots: scheduling links a job into the slot of its
+ * deadline, cancelling unlinks it (both O(1), by id), and one ticker thread walks one slot
+ * per second, firing the jobs whose deadline has come (a slot holds jobs for every lap of the
+ * wheel; each is compared with its absolute tick).
+ * <p>
+ * Ticks follow the wall clock, not {@link System#nanoTime()}, which stops while the machine is
+ * suspended. After a suspend or restart, a job more than {@value #LATE_GRACE_SECONDS} s overdue
+ * is dropped with a warning instead of firing hours late.
+ * <p>
+ * Due jobs go through the {@link Dispatcher} like a packet would (or straight to
+ * {@link CommandRegistry#start} when the daemon has no dispatcher). The REPL and packet commands
+ * {@value #SCHEDULE}, {@code jobs} and {@code cancel} come from {@link #commands()}. What became
+ * of the last {@value #HISTORY} due jobs (ok, failed, rejected by the dispatcher, missed) is listed
+ * by {@code jobs}, counted in {@code rpcs_jobs_total}, and jobs that never started are audited.
+ * <p>
+ * A job remembers the {@link Origin} that scheduled it: it runs (and is audited) on that
+ * requester's behalf, and a network client, which never sees the job id, can cancel it with
+ * {@code cancel nonce=<nonce of its schedule request>}. A network key can only cancel its own
+ * jobs, by id or by nonce; the REPL can cancel any.
+ * <p>
+ * Pending jobs are kept in a small binary file ({@code RPCS_JOBS_FILE}, default
+ * {@code ~/.local/share/rpcs/jobs}, {@code off} to disable), rewritten through a temp file
+ * on every change:
+ * <pre>
+ * "RPCSJOB2" | long next id | int count | per job: long id | long deadline (epoch ms) |
+ *     u8 length + command | u8 argc | per arg: u16 length + UTF-8 |
+ *     u8 length + key id | u8 length + nonce | u8 length (0, 4 or 16) + address | u16 port
+ * </pre>
+ */
+public final class Scheduler implements Closeable {
+    public static final String SCHEDULE = "schedule";
+    static final int SLOTS = 512;
+    static final long TICK_MILLIS = 1000;
+    static final long LATE_GRACE_SECONDS = 60;
+    static final long MAX_DELAY_DAYS = 366;
+    static final int MAX_ARGS = 0xff; // u8 argc in the jobs file
+    private static final byte[] MAGIC = {'R', 'P', 'C', 'S', 'J', 'O', 'B', '2'};
+    private static final Pattern DURATION = Pattern.compile("(\\d+)([smhd])");
+    private static final DateTimeFormatter SHOW = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final Metrics.Counter FIRED = Metrics.counter("rpcs_jobs_total", "result", "fired");
+    private static final Metrics.Counter CANCELLED = Metrics.counter("rpcs_jobs_total", "result", "cancelled");
+    private static final Metrics.Counter MISSED = Metrics.counter("rpcs_jobs_total", "result", "missed");
+    private static final Metrics.Counter REJECTED = Metrics.counter("rpcs_jobs_total", "result", "rejected");
+    private static final Metrics.Counter FAILED = Metrics.counter("rpcs_jobs_total", "result", "failed");
+    static final int HISTORY = 20;
+
+    /** A pending command; linked into its wheel slot. */
+    public static final class Job {
+        final long id;
+        final long deadline; // epoch millis
+        final String command;
+        final String[] args;
+        final Origin origin;
+        long tick;
+        Job prev, next;
+
+        Job(long id, long deadline, String command, String[] args, Origin origin) {
+            this.id = id;
+            this.deadline = deadline;
+            this.command = command;
+            this.args = args;
+            this.origin = origin;
+        }
+
+        public long id() { return id; }
+
+        /** The command line this job runs. */
+        public String what() {
+            return args.length == 0 ? command : command + " " + String.join(" ", args);
+        }
+
+        @Override
+        public String toString() {
+            long left = Math.max(0, (deadline - System.currentTimeMillis()) / 1000);
+            return String.format("#%-4d %s  %-24s (in %s)%s", id,
+                    SHOW.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(deadline), ZoneId.systemDefault())),
+                    what(), Duration.ofSeconds(left).toString().substring(2).toLowerCase(Locale.ROOT),
+                    origin.source() == null ? "" : " by " + origin.key() + "@" + origin.source().getAddress().getHostAddress());
+        }
+    }
+
+    /** A job that came due, and what became of it. */
+    public static final class Fired {
+        final Job job;
+        final long at = System.currentTimeMillis();
+        volatile String result;
+
+        Fired(Job job, String result) {
+            this.job = job;
+            this.result = result;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("#%-4d %s  %-24s %s", job.id,
+                    SHOW.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(at), ZoneId.systemDefault())),
+                    job.what(), result);
+        }
+    }
+
+    private final CommandRegistry registry;
+    private final Dispatcher dispatcher;
+    private final Path file;
+    private final Job[] slots = new Job[SLOTS];
+    private final Map<Long, Job> byId = new HashMap<>();
+    private final Object lock = new Object();
+    private final Deque<Fired> history = new ArrayDeque<>(); // newest first, under lock
+    private final Object saveLock = new Object(); // one writer of the jobs file at a time
+    private long tick; // last tick processed: epoch millis / TICK_MILLIS
+    private long nextId = 1;
+    private volatile boolean running = true;
+    private Thread ticker;
+
+    /**
+     * @param dispatcher where due jobs go; null to start them directly
+     * @param file       persistence file, or null for none
+     */
+    public Scheduler(CommandRegistry registry, Dispatcher dispatcher, Path file) {
+        this.registry = registry;
+        this.dispatcher = dispatcher;
+        this.file = file;
+        this.tick = System.currentTimeMillis() / TICK_MILLIS;
+        Metrics.gauge("rpcs_jobs_pending", this::size);
+    }
+
+    /** The daemon's scheduler: jobs file from {@code RPCS_JOBS_FILE}, pending jobs loaded, ticker running. */
+    public static Scheduler open(CommandRegistry registry, Dispatcher dispatcher) {
+        String setting = Config.jobsFile();
+        Path file = null;
+        if (!"off".equalsIgnoreCase(setting)) {
+            String home = System.getProperty("user.home");
+            file = setting != null ? Path.of(setting)
+                    : home == null || home.isBlank() ? null : Paths.get(home, ".local", "share", "rpcs", "jobs");
+        }
+        Scheduler s = new Scheduler(registry, dispatcher, file);
+        s.load();
+        s.start();
+        return s;
+    }
+
+    public void start() {
+        ticker = Thread.ofPlatform().name("rpcs-scheduler").daemon().start(this::tickLoop);
+    }
+
+    public int size() {
+        synchronized (lock) { return byId.size(); }
+    }
+
+    // --- wheel ---
+
+    /**
+     * Schedules {@code command} at {@code deadline} (epoch millis); a past deadline fires on the next tick.
+     * @param origin who asked; the job runs on its behalf
+     * @throws IllegalArgumentException with more than {@value #MAX_ARGS} args, or one over 64 KiB
+     */
+    public Job schedule(long deadline, Origin origin, String command, String... args) {
+        // the jobs file stores a u8 argc and u16 arg lengths: refuse what it cannot hold
+        if (args.length > MAX_ARGS) throw new IllegalArgumentException("too many args to schedule: " + args.length);
+        for (String a : args) {
+            if (a.getBytes(StandardCharsets.UTF_8).length > 0xffff) throw new IllegalArgumentException("arg too long to schedule");
+        }
+        Job job;
+        synchronized (lock) {
+            job = new Job(nextId++, deadline, command.toLowerCase(Locale.ROOT), args.clone(), origin);
+            link(job);
+        }
+        info("[Scheduler] scheduled {}", job);
+        save();
+        return job;
+    }
+
+    /** @return false if there is no pending job {@code id} */
+    public boolean cancel(long id) {
+        return cancel(id, Origin.LOCAL);
+    }
+
+    /**
+     * Cancels job {@code id} on behalf of {@code requester}; a remote requester may only cancel
+     * jobs scheduled with its own key.
+     * @return false if there is no such pending job it may cancel
+     */
+    public boolean cancel(long id, Origin requester) {
+        Job job;
+        synchronized (lock) {
+            job = byId.get(id);
+            if (job == null || !owns(requester, job)) return false;
+            byId.remove(id);
+            unlink(job);
+        }
+        CANCELLED.inc();
+        info("[Scheduler] cancelled #{}", id);
+        save();
+        return true;
+    }
+
+    /**
+     * The pending job scheduled by the request with {@code nonce}. A remote {@code requester}
+     * only finds jobs scheduled with its own key.
+     * @return its id, or -1
+     */
+    public long findByNonce(String nonce, Origin requester) {
+        synchronized (lock) {
+            for (Job j : byId.values()) {
+                if (nonce.equals(j.origin.nonce()) && owns(requester, j)) return j.id;
+            }
+        }
+        return -1;
+    }
+
+    /** The REPL may touch any job; a network requester only those scheduled with its key. */
+    private static boolean owns(Origin requester, Job job) {
+        return requester.source() == null || requester.key().equals(job.origin.key());
+    }
+
+    /** Pending jobs, soonest first. */
+    public List<Job> jobs() {
+        List<Job> out;
+        synchronized (lock) { out = new ArrayList<>(byId.values()); }
+        out.sort(Comparator.comparingLong((Job j) -> j.deadline).thenComparingLong(j -> j.id));
+        return out;
+    }
+
+    private void link(Job job) {
+        job.tick = Math.max(job.deadline / TICK_MILLIS, tick + 1);
+        int s = (int) (job.tick & (SLOTS - 1));
+        job.prev = null;
+        job.next = slots[s];
+        if (job.next != null) job.next.prev = job;
+        slots[s] = job;
+        byId.put(job.id, job);
+    }
+
+    private void unlink(Job job) {
+        int s = (int) (job.tick & (SLOTS - 1));
+        if (job.prev != null) job.prev.next = job.next;
+        else slots[s] = job.next;
+        if (job.next != null) job.next.prev = job.prev;
+        job.prev = job.next = null;
+    }
+
+    /** Takes the jobs of slot {@code t} that are due by tick {@code t} out of the wheel. */
+    private void expire(long t, List<Job> due) {
+        for (Job j = slots[(int) (t & (SLOTS - 1))], next; j != null; j = next) {
+            next = j.next;
+            if (j.tick > t) continue; // a later lap
+            unlink(j);
+            byId.remove(j.id);
+            due.add(j);
+        }
+    }
+
+    private void tickLoop() {
+        List<Job> due = new ArrayList<>();
+        while (running) {
+            try {
+                long now = System.currentTimeMillis();
+                Thread.sleep(TICK_MILLIS - now % TICK_MILLIS);
+                long target = System.currentTimeMillis() / TICK_MILLIS;
+                synchronized (lock) {
+                    if (target - tick >= SLOTS) { // clock jumped (resume, NTP step): one pass over every slot
+                        for (int s = 0; s < SLOTS; s++) expire(target - s, due);
+                        tick = target;
+                    }
+                    while (tick < target) expire(++tick, due);
+                }
+                if (due.isEmpty()) continue;
+                for (Job j : due) fire(j);
+                due.clear();
+                save();
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                error("[Scheduler] tick failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void fire(Job job) {
+        long late = (System.currentTimeMillis() - job.deadline) / 1000;
+        if (late > LATE_GRACE_SECONDS) {
+            missed(job);
+            warn("[Scheduler] job #{} ({}) dropped: {} s overdue", job.id, job.command, late);
+            return;
+        }
+        FIRED.inc();
+        info("[Scheduler] job #{} due: {}", job.id, job.what());
+        Fired f = remember(job, "running");
+        if (dispatcher != null) {
+            Dispatcher.Result r = dispatcher.submit(job.command, job.args, job.origin, ok -> finished(f, ok));
+            switch (r) {
+                case QUEUED, COALESCED -> {}
+                case UNKNOWN -> rejected(f, Audit.Outcome.UNKNOWN, "unknown command");
+                case BUSY, OVERFLOW -> rejected(f, Audit.Outcome.BUSY, r.name().toLowerCase(Locale.ROOT));
+            }
+            return;
+        }
+        Command cmd = registry.find(job.command);
+        if (cmd == null) rejected(f, Audit.Outcome.UNKNOWN, "unknown command");
+        else CommandRegistry.start(cmd, job.args, job.origin).thenAccept(ok -> finished(f, ok));
+    }
+
+    private void finished(Fired f, boolean ok) {
+        if (!ok) {
+            FAILED.inc();
+            warn("[Scheduler] job #{} failed: {}", f.job.id, f.job.what());
+        }
+        f.result = ok ? "ok" : "failed";
+    }
+
+    /** The run record is written by {@link CommandRegistry}; a job that never starts gets a request record. */
+    private void rejected(Fired f, Audit.Outcome outcome, String why) {
+        REJECTED.inc();
+        f.result = "not run: " + why;
+        warn("[Scheduler] job #{} not run: {}", f.job.id, why);
+        Audit.request(f.job.origin.source(), f.job.origin.key(), f.job.command, f.job.args, outcome);
+    }
+
+    private void missed(Job job) {
+        MISSED.inc();
+        remember(job, "missed");
+        Audit.request(job.origin.source(), job.origin.key(), job.command, job.args, Audit.Outcome.MISSED);
+    }
+
+    private Fired remember(Job job, String result) {
+        Fired f = new Fired(job, result);
+        synchronized (lock) {
+            if (history.size() == HISTORY) history.removeLast();
+            history.addFirst(f);
+        }
+        return f;
+    }
+
+    /** The last {@value #HISTORY} jobs that came due, newest first. */
+    public List<Fired> history() {
+        synchronized (lock) { return new ArrayList<>(history); }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        if (ticker != null) ticker.interrupt();
+    }
+
+    // --- persistence ---
+
+    private void load() {
+        if (file == null || !Files.exists(file)) return;
+        List<Job> missed = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (!Arrays.equals(in.readNBytes(MAGIC.length), MAGIC)) throw new IOException("not a jobs file");
+            long next = in.readLong();
+            int n = in.readInt();
+            long now = System.currentTimeMillis();
+            synchronized (lock) {
+                nextId = Math.max(nextId, next);
+                for (int i = 0; i < n; i++) {
+                    long id = in.readLong(), deadline = in.readLong();
+                    String cmd = readString(in, in.readUnsignedByte());
+                    String[] args = new String[in.readUnsignedByte()];
+                    for (int a = 0; a < args.length; a++) args[a] = readString(in, in.readUnsignedShort());
+                    Origin origin = readOrigin(in);
+                    Job job = new Job(id, deadline, cmd, args, origin);
+                    if ((now - deadline) / 1000 > LATE_GRACE_SECONDS) {
+                        missed.add(job);
+                        continue;
+                    }
+                    link(job);
+                    nextId = Math.max(nextId, id + 1);
+                }
+            }
+            info("[Scheduler] {} pending job(s) restored from {}", size(), file);
+        } catch (IOException e) {
+            warn("[Scheduler] jobs file {} not readable, starting empty: {}", file, e.getMessage());
+        }
+        if (!missed.isEmpty()) {
+            missed.forEach(this::missed);
+            warn("[Scheduler] {} job(s) missed while the daemon was down, dropped", missed.size());
+            save();
+        }
+    }
+
+    private void save() {
+        if (file == null) return;
+        synchronized (saveLock) { // snapshot and write under one lock, so an older snapshot never lands last
+            byte[] bytes = snapshot();
+            try {
+                if (file.getParent() != null) Files.createDirectories(file.getParent());
+                Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+                Files.deleteIfExists(tmp);
+                try {
+                    Files.createFile(tmp, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+                } catch (UnsupportedOperationException e) {
+                    Files.createFile(tmp);
+                }
+                Files.write(tmp, bytes);
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                warn("[Scheduler] jobs file {} not written: {}", file, e.getMessage());
+            }
+        }
+    }
+
+    private byte[] snapshot() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            List<Job> jobs;
+            long next;
+            synchronized (lock) {
+                jobs = new ArrayList<>(byId.values());
+                next = nextId;
+            }
+            out.write(MAGIC);
+            out.writeLong(next);
+            out.writeInt(jobs.size());
+            for (Job j : jobs) {
+                out.writeLong(j.id);
+                out.writeLong(j.deadline);
+                writeString(out, j.command, 0xff);
+                out.writeByte(j.args.length);
+                for (String a : j.args) writeString(out, a, 0xffff);
+                writeOrigin(out, j.origin);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // in-memory stream
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Origin readOrigin(DataInputStream in) throws IOException {
+        String key = readString(in, in.readUnsignedByte());
+        int n = in.readUnsignedByte();
+        String nonce = n == 0 ? null : readString(in, n);
+        byte[] addr = in.readNBytes(in.readUnsignedByte());
+        int port = in.readUnsignedShort();
+        if (addr.length == 0) return new Origin(null, key, nonce);
+        return new Origin(new InetSocketAddress(InetAddress.getByAddress(addr), port), key, nonce);
+    }
+
+    private static void writeOrigin(DataOutputStream out, Origin o) throws IOException {
+        writeString(out, o.key(), 0xff);
+        writeString(out, o.nonce() == null ? "" : o.nonce(), 0xff);
+        byte[] addr = o.source() == null ? new byte[0] : o.source().getAddress().getAddress();
+        out.writeByte(addr.length);
+        out.write(addr);
+        out.writeShort(o.source() == null ? 0 : o.source().getPort());
+    }
+
+    private static String readString(DataInputStream in, int len) throws IOException {
+        return new String(in.readNBytes(len), StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String s, int max) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        if (b.length > max) throw new IOException("field too long");
+        if (max == 0xff) out.writeByte(b.length);
+        else out.writeShort(b.length);
+        out.write(b);
+    }
+
+    // --- commands ---
+
+    /**
+     * When a job should run: a delay ({@code 90s}, {@code 30m}, {@code +1h30m}, {@code 2d}),
+     * a local time of day ({@code 02:00}, the next one), or a date-time ({@code 2026-12-24T18:00},
+     * local, or an ISO instant).
+     * @return epoch millis
+     * @throws IllegalArgumentException if {@code when} is none of these or too far out
+     */
+    public static long parseWhen(String when, long nowMillis, ZoneId zone) {
+        String w = when.startsWith("+") ? when.substring(1) : when;
+        long at;
+        Matcher m = DURATION.matcher(w.toLowerCase(Locale.ROOT));
+        if (!w.isEmpty() && Character.isDigit(w.charAt(0)) && m.lookingAt()) {
+            long seconds = 0;
+            int end = 0;
+            m.reset();
+            while (m.find() && m.start() == end) {
+                long v = Long.parseLong(m.group(1));
+                seconds += switch (m.group(2)) {
+                    case "s" -> v;
+                    case "m" -> v * 60;
+                    case "h" -> v * 3600;
+                    default -> v * 86400;
+                };
+                end = m.end();
+                if (seconds > MAX_DELAY_DAYS * 86400) break;
+            }
+            if (end != w.length()) throw new IllegalArgumentException("bad time: " + when);
+            at = nowMillis + seconds * 1000;
+        } else {
+            try {
+                if (w.matches("\\d{1,2}:\\d{2}")) {
+                    ZonedDateTime now = Instant.ofEpochMilli(nowMillis).atZone(zone);
+                    ZonedDateTime t = now.with(LocalTime.parse(w.length() == 4 ? "0" + w : w));
+                    at = (t.isAfter(now) ? t : t.plusDays(1)).toInstant().toEpochMilli();
+                } else if (w.endsWith("Z") || w.matches(".*[+-]\\d{2}:\\d{2}$")) {
+                    at = OffsetDateTime.parse(w).toInstant().toEpochMilli();
+                } else {
+                    at = LocalDateTime.parse(w).atZone(zone).toInstant().toEpochMilli();
+                }
+            } catch (DateTimeException e) {
+                throw new IllegalArgumentException("bad time: " + when);
+            }
+        }
+        if (at - nowMillis > MAX_DELAY_DAYS * 86_400_000L) throw new IllegalArgumentException("too far out: " + when);
+        return at;
+    }
+
+    /** {@value #SCHEDULE}, {@code jobs} and {@code cancel}, for the {@link CommandRegistry}. */
+    public List<Command> commands() {
+        return List.of(new ScheduleCommand(), new JobsCommand(), new CancelCommand());
+    }
+
+    private final class ScheduleCommand implements Command {
+        @Override public String name() { return SCHEDULE; }
+        @Override public String description() { return "<when> <command> [args] - run later (e.g. 30m suspend, 02:00 poweroff)"; }
+        @Override public void run(String[] args) {
+            if (args.length < 2) throw new IllegalArgumentException("usage: schedule <30m|02:00|...> <command> [args...]");
+            String target = args[1].toLowerCase(Locale.ROOT);
+            if (registry.find(target) == null || target.equals(SCHEDULE)) throw new IllegalArgumentException("cannot schedule: " + target);
+            long at = parseWhen(args[0], System.currentTimeMillis(), ZoneId.systemDefault());
+            Job job = schedule(at, CommandRegistry.origin(), target, Arrays.copyOfRange(args, 2, args.length));
+            System.out.println("scheduled " + job);
+        }
+    }
+
+    private final class JobsCommand implements Command {
+        @Override public String name() { return "jobs"; }
+        @Override public String description() { return "list scheduled commands and the last ones that came due"; }
+        @Override public void run(String[] args) {
+            List<Job> jobs = jobs();
+            if (jobs.isEmpty()) System.out.println("(no jobs)");
+            jobs.forEach(j -> System.out.println("  " + j));
+            List<Fired> fired = history();
+            if (fired.isEmpty()) return;
+            System.out.println("recent:");
+            fired.forEach(f -> System.out.println("  " + f));
+        }
+    }
+
+    private final class CancelCommand implements Command {
+        @Override public String name() { return "cancel"; }
+        @Override public String description() { return "<id>|nonce=<nonce> - drop a scheduled command"; }
+        @Override public void run(String[] args) {
+            String usage = "usage: cancel <id> | cancel nonce=<nonce of the schedule request>";
+            if (args.length != 1) throw new IllegalArgumentException(usage);
+            long id;
+            if (args[0].startsWith("nonce=")) {
+                id = findByNonce(args[0].substring(6), CommandRegistry.origin());
+                if (id < 0) throw new IllegalArgumentException("no job scheduled by " + args[0]);
+            } else {
+                try {
+                    id = Long.parseLong(args[0].startsWith("#") ? args[0].substring(1) : args[0]);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(usage);
+                }
+            }
+            // another key's job is reported as missing, so ids cannot be probed
+            if (!cancel(id, CommandRegistry.origin())) throw new IllegalArgumentException("no job #" + id);
+            System.out.println("cancelled #" + id);
+        }
+    }
+}
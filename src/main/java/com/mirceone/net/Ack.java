@@ -0,0 +1,150 @@
+package com.mirceone.net;
+
+import com.mirceone.core.Crypto;
+import com.mirceone.core.Metrics;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import static com.mirceone.core.Log.*;
+
+/**
+ * Signed acknowledgement sent back to the source of an authenticated request, in the
+ * request's own format:
+ * <pre>
+ * text:   ACK|serverTs|nonce|status|hmacHex         (status = {@link Status#code})
+ * binary: 0xA5 'A' | version | status | int64 serverTs | 16-byte nonce | raw MAC (60 bytes)
+ * </pre>
+ * The MAC uses the key that authenticated the request; the different magic keeps an ACK from ever parsing
+ * as a request. Nothing is sent for packets that fail authentication, and an ACK more than
+ * {@link #SLACK} bytes larger than its request is suppressed, so the daemon cannot be used
+ * as an amplifier (a replayed capture gets at most a same-sized reply).
+ * One instance per receive worker (owns the reply buffer).
+ */
+public final class Ack {
+    public static final byte MAGIC1 = 'A';
+    public static final int BINARY_LEN = 28 + MagicFrame.MAC_LEN;
+    /** Upper bound on an encoded ACK of either format. */
+    static final int MAX_LEN = 512;
+    /** Room for the server timestamp to be longer than a (skewed) request's, e.g. "5". */
+    static final int SLACK = 16;
+    private static final byte[] TEXT_PREFIX = "ACK|".getBytes(StandardCharsets.US_ASCII);
+    private static final Metrics.Counter SUPPRESSED = Metrics.counter("rpcs_acks_suppressed_total");
+
+    public enum Status {
+        QUEUED("ok"), UNKNOWN("unk"), REPLAY("rep"), SKEW("skew"), BUSY("busy"),
+        /** The key is outside its validity window or may not run this command. */
+        DENIED("deny");
+
+        /** Text form; short so the ACK fits within even a minimal request. */
+        public final String code;
+        final Metrics.Counter sent;
+
+        Status(String code) {
+            this.code = code;
+            this.sent = Metrics.counter("rpcs_acks_total", "status", name().toLowerCase(Locale.ROOT));
+        }
+
+        public static Status ofCode(String code) {
+            for (Status s : values()) if (s.code.equals(code)) return s;
+            return null;
+        }
+    }
+
+    interface Sender {
+        void send(ByteBuffer datagram, InetSocketAddress to) throws IOException;
+    }
+
+    private final Sender sender;
+    private final boolean bounded;
+    private final ByteBuffer out = ByteBuffer.allocate(MAX_LEN);
+
+    /** Replies to datagrams: sizes are bounded by the request (see {@link #SLACK}). */
+    Ack(Sender sender) {
+        this(sender, true);
+    }
+
+    /** @param bounded false on connection transports, where a reply cannot be aimed at a third party */
+    Ack(Sender sender, boolean bounded) {
+        this.sender = sender;
+        this.bounded = bounded;
+    }
+
+    /**
+     * @param requestLen size of the request datagram (bounds the reply, see {@link #SLACK})
+     * @param nonce      request nonce at {@code nonce[nonceOff, nonceOff+nonceLen)}
+     * @param hmac       the key the request was signed with
+     */
+    void reply(InetSocketAddress to, int requestLen, boolean binary,
+               ByteBuffer nonce, int nonceOff, int nonceLen, Crypto.Hmac hmac, Status status) {
+        if (nonceLen > MagicFrame.MAX_NONCE) { SUPPRESSED.inc(); return; } // parsing rejects these: every reply fits
+        out.clear();
+        long now = System.currentTimeMillis() / 1000;
+        if (binary) encodeBinary(out, hmac, now, nonce, nonceOff, status);
+        else encodeText(out, hmac, now, nonce, nonceOff, nonceLen, status);
+        out.flip();
+        if (bounded && out.remaining() > requestLen + SLACK) { SUPPRESSED.inc(); return; }
+        try {
+            sender.send(out, to);
+            status.sent.inc();
+        } catch (IOException e) {
+            debug("[MagicServer] ack to {} failed: {}", to, e.getMessage());
+        }
+    }
+
+    static void encodeBinary(ByteBuffer out, Crypto.Hmac hmac, long ts, ByteBuffer nonce, int nonceOff, Status status) {
+        int start = out.position();
+        out.put(MagicFrame.MAGIC0).put(MAGIC1).put((byte) MagicFrame.VERSION).put((byte) status.ordinal())
+                .putLong(ts).put(nonce.slice(nonceOff, MagicFrame.NONCE_LEN));
+        hmac.sign(out.duplicate().flip().position(start), out);
+    }
+
+    static void encodeText(ByteBuffer out, Crypto.Hmac hmac, long ts, ByteBuffer nonce, int nonceOff, int nonceLen, Status status) {
+        int start = out.position();
+        out.put(TEXT_PREFIX);
+        FrameEncoder.putDecimal(out, ts);
+        out.put((byte) '|').put(nonce.slice(nonceOff, nonceLen)).put((byte) '|')
+                .put(status.code.getBytes(StandardCharsets.US_ASCII));
+        ByteBuffer signed = out.duplicate().flip().position(start);
+        out.put((byte) '|');
+        hmac.signHex(signed, out);
+    }
+
+    // --- client side ---
+
+    /** A verified ACK; {@code nonce} is the raw nonce field (ASCII for text frames). */
+    public record Reply(Status status, long serverTs, byte[] nonce) {}
+
+    /**
+     * Decodes and authenticates an ACK datagram in {@code buf[position, limit)}.
+     * @return null if it is not a well-formed ACK signed with {@code hmac}'s key
+     */
+    public static Reply parse(ByteBuffer buf, Crypto.Hmac hmac) {
+        int p = buf.position(), n = buf.remaining();
+        if (n == BINARY_LEN && buf.get(p) == MagicFrame.MAGIC0 && buf.get(p + 1) == MAGIC1) {
+            int code = buf.get(p + 3);
+            if (buf.get(p + 2) != MagicFrame.VERSION || code < 0 || code >= Status.values().length) return null;
+            if (!hmac.verify(buf.duplicate(), p, 28, p + 28)) return null;
+            byte[] nonce = new byte[MagicFrame.NONCE_LEN];
+            buf.get(p + 12, nonce);
+            return new Reply(Status.values()[code], buf.getLong(p + 4), nonce);
+        }
+        String text = StandardCharsets.UTF_8.decode(buf.duplicate()).toString();
+        String[] parts = text.split("\\|");
+        if (parts.length != 5 || !"ACK".equals(parts[0])) return null;
+        int bar = buf.limit() - 1;
+        while (buf.get(bar) != '|') bar--;
+        int signedLen = bar - p;
+        if (!hmac.verifyHex(buf.duplicate(), p, signedLen, p + signedLen + 1, n - signedLen - 1)) return null;
+        Status status = Status.ofCode(parts[3]);
+        if (status == null) return null;
+        try {
+            return new Reply(status, Long.parseLong(parts[1]), parts[2].getBytes(StandardCharsets.UTF_8));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.mirceone.net;
+
+import com.mirceone.core.Log;
+import com.mirceone.core.Metrics;
+
+/** Why a packet was not dispatched; each reason has its own counter and log level. */
+enum Drop {
+    RATE_LIMITED("rate_limited", Log.Level.WARN),
+    JUNK("junk", Log.Level.DEBUG),
+    BAD_TS("bad_ts", Log.Level.WARN),
+    SKEW("skew", Log.Level.WARN),
+    BAD_HMAC("bad_hmac", Log.Level.WARN),
+    REPLAY("replay", Log.Level.WARN),
+    UNKNOWN_KEY("unknown_key", Log.Level.WARN),
+    KEY_DENIED("key_denied", Log.Level.WARN),
+    UNKNOWN_CMD("unknown_cmd", Log.Level.WARN),
+    DISPATCH_REJECTED("dispatch_rejected", Log.Level.WARN);
+
+    final String label;
+    final Log.Level level;
+    final Metrics.Counter counter;
+
+    Drop(String label, Log.Level level) {
+        this.label = label;
+        this.level = level;
+        this.counter = Metrics.counter("rpcs_packets_dropped_total", "reason", label);
+    }
+}
@@ -0,0 +1,61 @@
+package com.mirceone.net;
+
+import com.mirceone.core.Log;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Rate-limited logging of dropped packets. Every drop is counted; only the first
+ * {@code detailed} per interval are logged individually, the rest are folded into one
+ * summary line when the interval ends, so a flood produces a bounded number of log lines.
+ */
+final class DropLog {
+    private final long intervalNanos;
+    private final int detailed;
+    private final AtomicLong windowEnd;
+    private final AtomicInteger logged = new AtomicInteger();
+    private final LongAdder[] suppressed = new LongAdder[Drop.values().length];
+
+    DropLog(long intervalSeconds, int detailed) {
+        this.intervalNanos = TimeUnit.SECONDS.toNanos(intervalSeconds);
+        this.detailed = detailed;
+        this.windowEnd = new AtomicLong(System.nanoTime() + intervalNanos);
+        for (int i = 0; i < suppressed.length; i++) suppressed[i] = new LongAdder();
+    }
+
+    /** @param detail message for the individual line; null = never logged individually */
+    void record(Drop reason, Supplier<String> detail) {
+        reason.counter.inc();
+        tick(System.nanoTime());
+        if (!Log.enabled(reason.level)) return;
+        if (detail != null && logged.incrementAndGet() <= detailed) {
+            Log.log(reason.level, detail.get());
+        } else {
+            suppressed[reason.ordinal()].increment();
+        }
+    }
+
+    /** Closes the interval if it has ended; also called from idle receive loops. */
+    void tick(long nowNanos) {
+        long end = windowEnd.get();
+        if (nowNanos - end < 0 || !windowEnd.compareAndSet(end, nowNanos + intervalNanos)) return;
+        logged.set(0);
+        StringBuilder sb = null;
+        long total = 0;
+        for (Drop d : Drop.values()) {
+            long n = suppressed[d.ordinal()].sumThenReset();
+            if (n == 0) continue;
+            if (sb == null) sb = new StringBuilder();
+            else sb.append(' ');
+            sb.append(d.label).append('=').append(n);
+            total += n;
+        }
+        if (sb != null) {
+            Log.warn("[MagicServer] {} more drops not logged individually: {}", total, sb);
+        }
+    }
+}
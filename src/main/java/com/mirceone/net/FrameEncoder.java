@@ -0,0 +1,130 @@
+package com.mirceone.net;
+
+import com.mirceone.core.Crypto;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reference encoder for both wire formats described on {@link MagicFrame}. Used by
+ * clients, tests and benchmarks; the server only ever decodes.
+ */
+public final class FrameEncoder {
+    private FrameEncoder() {}
+
+    private static final byte[] TEXT_MAGIC = "RPCS".getBytes(StandardCharsets.US_ASCII);
+
+    /** {@code RPCS|ts|nonce|cmd|arg1|...|hmacHex} */
+    public static byte[] text(Crypto.Hmac hmac, long ts, String nonce, String cmd, String... args) {
+        return text(hmac, null, ts, nonce, cmd, args);
+    }
+
+    /** {@code RPCS:keyId|ts|nonce|cmd|arg1|...|hmacHex}; a null key id gives the plain (default key) form. */
+    public static byte[] text(Crypto.Hmac hmac, String keyId, long ts, String nonce, String cmd, String... args) {
+        byte[] n = nonce.getBytes(StandardCharsets.UTF_8);
+        byte[] k = keyId == null ? null : keyId.getBytes(StandardCharsets.US_ASCII);
+        int len = TEXT_MAGIC.length + 1 + (k == null ? 0 : 1 + k.length) + 20 + 1 + n.length + 1 + cmd.length() + 1 + 2 * MagicFrame.MAC_LEN;
+        for (String a : args) len += 1 + a.getBytes(StandardCharsets.UTF_8).length;
+        ByteBuffer out = ByteBuffer.allocate(len);
+        text(out, hmac, k, ts, n, cmd, args);
+        return Arrays.copyOf(out.array(), out.position());
+    }
+
+    /**
+     * Writes a text frame at {@code out}'s position (advancing it).
+     * @param nonce nonce field bytes (must not contain '|')
+     * @return the frame length
+     */
+    public static int text(ByteBuffer out, Crypto.Hmac hmac, long ts, byte[] nonce, String cmd, String... args) {
+        return text(out, hmac, null, ts, nonce, cmd, args);
+    }
+
+    /** @param keyId key id bytes, or null for a frame signed with the default key */
+    public static int text(ByteBuffer out, Crypto.Hmac hmac, byte[] keyId, long ts, byte[] nonce, String cmd, String... args) {
+        checkKeyId(keyId);
+        int start = out.position();
+        out.put(TEXT_MAGIC);
+        if (keyId != null) out.put((byte) ':').put(keyId);
+        out.put((byte) '|');
+        putDecimal(out, ts);
+        out.put((byte) '|').put(nonce).put((byte) '|').put(cmd.getBytes(StandardCharsets.UTF_8));
+        for (String a : args) out.put((byte) '|').put(a.getBytes(StandardCharsets.UTF_8));
+        ByteBuffer signed = out.duplicate().flip().position(start);
+        out.put((byte) '|');
+        hmac.signHex(signed, out);
+        return out.position() - start;
+    }
+
+    /** ASCII decimal without going through a String. */
+    static void putDecimal(ByteBuffer out, long v) {
+        if (v < 0) {
+            out.put((byte) '-');
+            if (v == Long.MIN_VALUE) { out.put("9223372036854775808".getBytes(StandardCharsets.US_ASCII)); return; }
+            v = -v;
+        }
+        int digits = 1;
+        for (long t = v; t >= 10; t /= 10) digits++;
+        int p = out.position() + digits;
+        for (int i = 1; i <= digits; i++, v /= 10) out.put(p - i, (byte) ('0' + v % 10));
+        out.position(p);
+    }
+
+    public static byte[] binary(Crypto.Hmac hmac, long ts, byte[] nonce, String cmd, String... args) {
+        return binary(hmac, null, ts, nonce, cmd, args);
+    }
+
+    /** @param keyId key id, or null for a frame signed with the default key */
+    public static byte[] binary(Crypto.Hmac hmac, String keyId, long ts, byte[] nonce, String cmd, String... args) {
+        byte[] k = keyId == null ? null : keyId.getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer out = ByteBuffer.allocate(binaryLength(cmd, args) + (k == null ? 0 : 1 + k.length));
+        binary(out, hmac, k, ts, nonce, cmd, args);
+        return out.array();
+    }
+
+    /**
+     * Writes a v2 frame at {@code out}'s position (advancing it).
+     * @param nonce exactly {@link MagicFrame#NONCE_LEN} bytes
+     * @return the frame length
+     */
+    public static int binary(ByteBuffer out, Crypto.Hmac hmac, long ts, byte[] nonce, String cmd, String... args) {
+        return binary(out, hmac, null, ts, nonce, cmd, args);
+    }
+
+    /** @param keyId key id bytes, or null for a frame signed with the default key */
+    public static int binary(ByteBuffer out, Crypto.Hmac hmac, byte[] keyId, long ts, byte[] nonce, String cmd, String... args) {
+        checkKeyId(keyId);
+        if (nonce.length != MagicFrame.NONCE_LEN) throw new IllegalArgumentException("nonce must be " + MagicFrame.NONCE_LEN + " bytes");
+        byte[] name = cmd.getBytes(StandardCharsets.US_ASCII);
+        if (name.length == 0 || name.length > MagicFrame.MAX_CMD) throw new IllegalArgumentException("bad command name: " + cmd);
+        if (args.length > MagicFrame.MAX_FIELDS) throw new IllegalArgumentException("too many args");
+
+        int start = out.position();
+        out.put(MagicFrame.MAGIC0).put(MagicFrame.MAGIC1).put((byte) MagicFrame.VERSION)
+                .put((byte) (keyId == null ? 0 : MagicFrame.FLAG_KEY_ID))
+                .putLong(ts).put(nonce);
+        if (keyId != null) out.put((byte) keyId.length).put(keyId);
+        out.put((byte) name.length).put(name)
+                .put((byte) args.length);
+        for (String a : args) {
+            byte[] b = a.getBytes(StandardCharsets.UTF_8);
+            if (b.length > 0xffff) throw new IllegalArgumentException("arg too long");
+            out.putShort((short) b.length).put(b);
+        }
+        hmac.sign(out.duplicate().flip().position(start), out);
+        return out.position() - start;
+    }
+
+    private static void checkKeyId(byte[] keyId) {
+        if (keyId == null) return;
+        if (keyId.length == 0 || keyId.length > MagicFrame.MAX_KEY_ID) throw new IllegalArgumentException("bad key id length");
+        for (byte b : keyId) if (b == '|' || b == ':' || b <= ' ') throw new IllegalArgumentException("bad key id");
+    }
+
+    /** Exact size of a v2 frame without a key id for these fields. */
+    public static int binaryLength(String cmd, String... args) {
+        int n = MagicFrame.HEADER + 1 + cmd.length() + 1 + MagicFrame.MAC_LEN;
+        for (String a : args) n += 2 + a.getBytes(StandardCharsets.UTF_8).length;
+        return n;
+    }
+}
@@ -0,0 +1,218 @@
+package com.mirceone.net;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * In-place view over one magic frame, either format:
+ * <pre>
+ * text (v1):   RPCS[:keyId]|ts|nonce|cmd|arg1|...|hmacHex   (nonce at most {@link #MAX_NONCE} bytes)
+ *
+ * binary (v2): off  size
+ *              0    2    magic 0xA5 'R'
+ *              2    1    version (2)
+ *              3    1    flags: {@link #FLAG_KEY_ID}; other bits must be 0
+ *              4    8    epoch seconds, big-endian
+ *              12   16   nonce
+ *              28   1    if FLAG_KEY_ID: key id length k (1..32), then k bytes ASCII key id
+ *              .    1    command length n (1..32), then n bytes ASCII command
+ *              .    1    argc, then per arg: u16 big-endian length + UTF-8 bytes
+ *              end  32   raw HMAC-SHA256 of every preceding byte
+ * </pre>
+ * Without a key id the frame is signed with the default key (see {@code Keyring}).
+ * Parsing only records offsets into the backing buffer; Strings are materialized on
+ * demand (i.e. after the packet has been authenticated). One instance per receive loop,
+ * reused for every datagram. See {@link FrameEncoder} for the matching encoder.
+ */
+public final class MagicFrame {
+    public static final int MAX_FIELDS = 32;
+    public static final byte MAGIC0 = (byte) 0xA5, MAGIC1 = 'R';
+    public static final int VERSION = 2;
+    public static final int NONCE_LEN = 16;
+    /** Longest text nonce accepted; keeps every ACK well inside its reply buffer. */
+    public static final int MAX_NONCE = 64;
+    public static final int MAC_LEN = 32;
+    public static final int MAX_CMD = 32;
+    public static final int MAX_KEY_ID = 32;
+    public static final int FLAG_KEY_ID = 0x01;
+    static final int HEADER = 28; // magic .. nonce
+
+    private static final byte SEP = '|';
+    private static final byte[] TEXT_MAGIC = {'R', 'P', 'C', 'S'};
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final int[] start = new int[MAX_FIELDS];
+    private final int[] end = new int[MAX_FIELDS];
+    private ByteBuffer buf;
+    private boolean binary;
+    private long ts;
+    private int signedStart, signedLen;
+    private int keyIdStart, keyIdLen;
+    private int nonceStart, nonceLen;
+    private int cmdStart, cmdLen;
+    private int argBase, argc;
+    private int macStart, macLen;
+
+    /** True if {@code buf} starts with the binary magic (cheap pre-check before parsing). */
+    public static boolean isBinary(ByteBuffer buf) {
+        int p = buf.position();
+        return buf.limit() - p >= 2 && buf.get(p) == MAGIC0 && buf.get(p + 1) == MAGIC1;
+    }
+
+    /**
+     * Parses {@code buf[position, limit)} as a binary frame if it carries the binary magic,
+     * otherwise as a text frame.
+     * @return false if the bytes are not a well-formed frame of either kind
+     */
+    public boolean parse(ByteBuffer buf) {
+        this.buf = buf;
+        return isBinary(buf) ? parseBinary() : parseText();
+    }
+
+    private boolean parseText() {
+        binary = false;
+        int lo = buf.position(), hi = buf.limit();
+        while (lo < hi && (buf.get(lo) & 0xff) <= ' ') lo++;
+        while (hi > lo && (buf.get(hi - 1) & 0xff) <= ' ') hi--;
+        int count = 0;
+        int fieldStart = lo;
+        for (int i = lo; i < hi; i++) {
+            if (buf.get(i) != SEP) continue;
+            if (count == MAX_FIELDS - 1) return false;
+            start[count] = fieldStart; end[count] = i; count++;
+            fieldStart = i + 1;
+        }
+        start[count] = fieldStart; end[count] = hi; count++;
+        if (count < 5 || !textMagic()) return false;
+        keyIdStart = start[0] + TEXT_MAGIC.length + 1;
+        keyIdLen = Math.max(0, end[0] - keyIdStart);
+
+        ts = parseLong(start[1], end[1]);
+        if (ts < 0) ts = Long.MIN_VALUE;
+        nonceStart = start[2]; nonceLen = end[2] - start[2];
+        if (nonceLen > MAX_NONCE) return false;
+        cmdStart = start[3]; cmdLen = end[3] - start[3];
+        argBase = 4; argc = count - 5;
+        macStart = start[count - 1]; macLen = end[count - 1] - macStart;
+        signedStart = lo; signedLen = macStart - 1 - lo;
+        return true;
+    }
+
+    /** "RPCS" or "RPCS:" + key id. */
+    private boolean textMagic() {
+        int len = end[0] - start[0];
+        if (len != TEXT_MAGIC.length && (len < TEXT_MAGIC.length + 2 || len > TEXT_MAGIC.length + 1 + MAX_KEY_ID
+                || buf.get(start[0] + TEXT_MAGIC.length) != ':')) return false;
+        for (int i = 0; i < TEXT_MAGIC.length; i++) {
+            if (buf.get(start[0] + i) != TEXT_MAGIC[i]) return false;
+        }
+        return true;
+    }
+
+    private boolean parseBinary() {
+        binary = true;
+        int p0 = buf.position(), hi = buf.limit();
+        if (hi - p0 < HEADER + 2 + MAC_LEN || buf.get(p0 + 2) != VERSION) return false;
+        int flags = buf.get(p0 + 3) & 0xff;
+        if ((flags & ~FLAG_KEY_ID) != 0) return false;
+        ts = buf.getLong(p0 + 4);
+        if (ts < 0) ts = Long.MIN_VALUE; // before 1970: a bad timestamp, never a skew computation
+        nonceStart = p0 + 12; nonceLen = NONCE_LEN;
+        int p = p0 + HEADER;
+        keyIdLen = 0;
+        if ((flags & FLAG_KEY_ID) != 0) {
+            keyIdLen = buf.get(p++) & 0xff;
+            keyIdStart = p;
+            if (keyIdLen == 0 || keyIdLen > MAX_KEY_ID) return false;
+            p += keyIdLen;
+            if (p >= hi - MAC_LEN) return false;
+        }
+        cmdLen = buf.get(p++) & 0xff;
+        cmdStart = p;
+        if (cmdLen == 0 || cmdLen > MAX_CMD) return false;
+        p += cmdLen;
+        macStart = hi - MAC_LEN; macLen = MAC_LEN;
+        if (p >= macStart) return false;
+        argBase = 0;
+        argc = buf.get(p++) & 0xff;
+        if (argc > MAX_FIELDS) return false;
+        for (int i = 0; i < argc; i++) {
+            if (p + 2 > macStart) return false;
+            int len = buf.getShort(p) & 0xffff;
+            p += 2;
+            start[i] = p; end[i] = p + len;
+            p += len;
+        }
+        if (p != macStart) return false;
+        signedStart = p0; signedLen = macStart - p0;
+        return true;
+    }
+
+    /** Decimal parse without allocating; {@link Long#MIN_VALUE} if malformed. */
+    private long parseLong(int p, int e) {
+        if (p == e) return Long.MIN_VALUE;
+        boolean neg = false;
+        byte first = buf.get(p);
+        if (first == '-' || first == '+') {
+            neg = first == '-';
+            if (++p == e) return Long.MIN_VALUE;
+        }
+        if (e - p > 18) return Long.MIN_VALUE; // keeps the accumulator from overflowing
+        long v = 0;
+        for (; p < e; p++) {
+            int d = buf.get(p) - '0';
+            if (d < 0 || d > 9) return Long.MIN_VALUE;
+            v = v * 10 + d;
+        }
+        return neg ? -v : v;
+    }
+
+    public boolean isBinary() { return binary; }
+    public ByteBuffer buffer() { return buf; }
+
+    /** Epoch seconds; {@link Long#MIN_VALUE} if the timestamp was malformed (text) or negative. */
+    public long timestamp() { return ts; }
+
+    /** Signed region: from the first frame byte up to the separator before the MAC (text) or the MAC (binary). */
+    public int signedStart() { return signedStart; }
+    public int signedLength() { return signedLen; }
+    /** MAC as hex text (text frames) or raw bytes (binary frames). */
+    public int macStart() { return macStart; }
+    public int macLength() { return macLen; }
+    /** Key id bytes; length 0 when the frame names no key (default key). */
+    public int keyIdStart() { return keyIdStart; }
+    public int keyIdLength() { return keyIdLen; }
+    public int nonceStart() { return nonceStart; }
+    public int nonceLength() { return nonceLen; }
+    public int argCount() { return argc; }
+
+    /** Nonce as text; binary nonces are rendered as hex. */
+    public String nonce() {
+        if (!binary) return string(nonceStart, nonceLen);
+        char[] out = new char[nonceLen * 2];
+        for (int i = 0; i < nonceLen; i++) {
+            byte b = buf.get(nonceStart + i);
+            out[2 * i] = HEX[(b >> 4) & 0xf];
+            out[2 * i + 1] = HEX[b & 0xf];
+        }
+        return new String(out);
+    }
+
+    /** Key id as text; empty for the default key. */
+    public String keyId() { return string(keyIdStart, keyIdLen); }
+
+    public String command() { return string(cmdStart, cmdLen).toLowerCase(Locale.ROOT); }
+
+    public String[] args() {
+        String[] out = new String[argc];
+        for (int i = 0; i < argc; i++) out[i] = string(start[argBase + i], end[argBase + i] - start[argBase + i]);
+        return out;
+    }
+
+    private String string(int off, int len) {
+        byte[] b = new byte[len];
+        buf.get(off, b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
@@ -3,65 +3,269 @@ package com.mirceone.net;
 import com.mirceone.core.*;
 import static com.mirceone.core.Log.*;
 
+import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
+import java.util.function.BiConsumer;
 
+/**
+ * UDP listener for signed magic packets, text (v1) or binary (v2) frames; see
+ * {@link MagicFrame}. With {@code RPCS_TCP_PORT} set, {@link TcpTransport} also accepts the
+ * same frames over TCP connections and feeds them through the same checks. Per packet, cheapest check first:
+ * per-source/global rate limit, frame shape, key lookup, timestamp skew, HMAC, then the
+ * replay cache (so forged packets never insert nonces), then the key's validity window and
+ * command list, then dispatch. Each frame is verified with the {@link Keyring} key it names. Drops are counted per reason and
+ * logged through {@link DropLog}.
+ * <p>
+ * With {@code RPCS_UDP_WORKERS > 1} each receive thread binds its own socket to the port
+ * with SO_REUSEPORT and the kernel spreads datagrams across them. Each worker owns its
+ * buffers and frame; each key's {@link Crypto.Hmac} keeps a Mac per thread; the keyring,
+ * replay cache, rate limiter and drop log are shared and thread-safe.
+ * <p>
+ * With {@code RPCS_ACK=1} every authenticated request gets a signed {@link Ack} back
+ * (queued, unknown, replay, skew, busy or denied), signed with the request's key; unauthenticated packets never get a reply.
+ */
 public final class MagicServer implements Runnable {
-    private final CommandRegistry registry;
-    private final int port;
-    private final String secret;
+    private static final Metrics.Counter RECEIVED = Metrics.counter("rpcs_packets_total");
+    private static final Metrics.Counter DISPATCHED = Metrics.counter("rpcs_packets_dispatched_total");
+    private static final Metrics.Histogram HANDLE = Metrics.histogram("rpcs_packet_handle_seconds");
+    private static final Metrics.Counter TEXT = Metrics.counter("rpcs_frames_total", "format", "text");
+    private static final Metrics.Counter BINARY = Metrics.counter("rpcs_frames_total", "format", "binary");
+
+    private final Dispatcher dispatcher;
+    private final InetSocketAddress bind;
+    private final int workers;
+    private final int tcpPort;
+    private final boolean acks;
+    private volatile Keyring keyring;
     private final ReplayCache cache;
+    private ReplayJournal journal;
+    private final RateLimiter limiter;
+    private final DropLog drops = new DropLog(10, 20);
     private volatile boolean running = true;
+    private BiConsumer<Config.Snapshot, Config.Snapshot> configListener;
+
+    /** The daemon's server: settings from {@link Config}, following live reloads until {@link #shutdown()}. */
+    public MagicServer(Dispatcher dispatcher) {
+        this(dispatcher, Keyring.from(Config.get()), new RateLimiter(Config.ratePerSource(), Config.rateBurst(),
+                Config.rateGlobal(), Config.rateSlots()), Config.bindAddress(), Config.port(), Config.ack());
+        this.configListener = this::configChanged;
+        Config.addListener(configListener);
+        openJournal(Config.replayJournal());
+    }
+
+    MagicServer(Dispatcher dispatcher, String secret) {
+        this(dispatcher, secret, new RateLimiter(Config.ratePerSource(), Config.rateBurst(),
+                Config.rateGlobal(), Config.rateSlots()));
+    }
+
+    /** Single default key {@code secret}; other settings from {@link Config}. */
+    MagicServer(Dispatcher dispatcher, String secret, RateLimiter limiter) {
+        this(dispatcher, Keyring.single(secret), limiter, Config.bindAddress(), Config.port(), Config.ack());
+    }
 
-    public MagicServer(CommandRegistry registry) {
-        this.registry = registry;
-        this.port = Config.port();
-        this.secret = Config.secret();
-        this.cache = new ReplayCache(Config.clockSkewSeconds() * 2L);
+    private MagicServer(Dispatcher dispatcher, Keyring keyring, RateLimiter limiter, String bindHost, int port, boolean acks) {
+        this.dispatcher = dispatcher;
+        this.bind = bindHost == null ? new InetSocketAddress(port) : new InetSocketAddress(bindHost, port);
+        this.workers = Config.udpWorkers();
+        this.tcpPort = Config.tcpPort();
+        this.acks = acks;
+        this.keyring = keyring;
+        this.cache = new ReplayCache(Config.clockSkewSeconds() * 2L, Config.replayMaxEntries(),
+                workers > 1 ? workers * 4 : 1);
+        this.limiter = limiter;
+        Metrics.gauge("rpcs_replay_cache_size", cache::size);
     }
 
-    public void shutdown() { running = false; }
+    /**
+     * A server on 127.0.0.1 with rate limiting off, for load generation and tests
+     * (all traffic comes from one address). Workers, skew and replay settings still come from {@link Config}.
+     */
+    public static MagicServer loopback(Dispatcher dispatcher, String secret, int port, boolean acks) {
+        return new MagicServer(dispatcher, Keyring.single(secret), new RateLimiter(0, 1, 0, 64), "127.0.0.1", port, acks);
+    }
+
+    /**
+     * Attaches the replay journal so nonces survive a restart. The journal holds one slot per
+     * replay-cache entry, so every nonce the cache may still remember is also on disk.
+     */
+    private void openJournal(String setting) {
+        if ("off".equalsIgnoreCase(setting)) return;
+        Path file = setting != null ? Path.of(setting) : ReplayJournal.defaultPath();
+        if (file == null) {
+            warn("[MagicServer] no home directory; replay journal off (set RPCS_REPLAY_JOURNAL)");
+            return;
+        }
+        try {
+            journal = ReplayJournal.open(file, cache.capacity());
+            int restored = cache.restore(journal);
+            journal.syncEvery(1000);
+            info("[MagicServer] replay journal {}: {} nonce(s) restored", file, restored);
+        } catch (IOException | RuntimeException e) {
+            warn("[MagicServer] replay journal {} not usable, nonces will not survive a restart: {}", file, e.getMessage());
+        }
+    }
+
+    /** False once {@link #shutdown()} was called or a worker failed; listeners stop when they see it. */
+    boolean running() { return running; }
+
+    /** Keys in use (replaced wholesale on config reload). */
+    public Keyring keyring() { return keyring; }
+
+    public void shutdown() {
+        running = false;
+        if (journal != null) journal.force();
+        if (configListener != null) Config.removeListener(configListener);
+    }
+
+    /** Applies the live settings of a config reload; sockets and worker counts stay as they are. */
+    private void configChanged(Config.Snapshot old, Config.Snapshot now) {
+        if (old.clockSkewSeconds != now.clockSkewSeconds) cache.retime(now.clockSkewSeconds * 2L);
+        if (old.ratePerSource != now.ratePerSource || old.rateBurst != now.rateBurst || old.rateGlobal != now.rateGlobal) {
+            limiter.configure(now.ratePerSource, now.rateBurst, now.rateGlobal);
+        }
+        if (!Keyring.sameKeys(old, now)) {
+            Keyring next = Keyring.from(now);
+            if (next.isEmpty()) {
+                warn("[MagicServer] reload left no keys; keeping the current keyring");
+            } else {
+                keyring = next;
+                info("[MagicServer] keyring reloaded: {} key(s)", next.keys().size());
+            }
+        }
+    }
 
     @Override
     public void run() {
-        if (secret == null || secret.isBlank()) {
-            warn("[MagicServer] not started: RPCS_SECRET missing.");
+        if (keyring.isEmpty()) {
+            warn("[MagicServer] not started: no keys (set RPCS_SECRET or RPCS_KEY.<id>).");
             return;
         }
-        try (DatagramSocket sock = new DatagramSocket(new InetSocketAddress(port))) {
+        int n = workers;
+        if (n > 1 && !reusePortSupported()) {
+            warn("[MagicServer] SO_REUSEPORT not supported; using 1 receive worker instead of {}", n);
+            n = 1;
+        }
+        boolean reuse = n > 1;
+        List<Thread> extra = new ArrayList<>();
+        try {
+            for (int i = 1; i < n; i++) {
+                int id = i;
+                extra.add(Thread.ofPlatform().name("rpcs-magic-udp-" + i).daemon().start(() -> receive(id, reuse)));
+            }
+            if (tcpPort > 0) {
+                InetSocketAddress tcp = new InetSocketAddress(bind.getAddress(), tcpPort);
+                extra.add(Thread.ofPlatform().name("rpcs-magic-tcp").daemon().start(new TcpTransport(this, tcp)));
+            }
+            if (reuse) info("[MagicServer] {} receive workers on UDP {}", n, bind);
+            receive(0, reuse);
+            for (Thread t : extra) t.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            running = false;
+            closeJournal();
+            info("[MagicServer] stopped.");
+        }
+    }
+
+    private void closeJournal() {
+        if (journal == null) return;
+        try {
+            journal.close();
+        } catch (IOException e) {
+            warn("[MagicServer] replay journal close failed: {}", e.getMessage());
+        }
+    }
+
+    private void receive(int worker, boolean reusePort) {
+        try {
+            if ("nio".equals(Config.udpEngine())) runNio(worker, reusePort);
+            else runClassic(worker, reusePort);
+        } catch (Exception e) {
+            error("[MagicServer] worker {} fatal: {}", worker, e.getMessage());
+            running = false; // e.g. one worker failing to bind takes the others down with it
+        }
+    }
+
+    private static boolean reusePortSupported() {
+        try (DatagramChannel ch = DatagramChannel.open()) {
+            return ch.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    // --- classic engine: DatagramSocket + String split ---
+
+    private void runClassic(int worker, boolean reusePort) throws Exception {
+        try (DatagramSocket sock = new DatagramSocket(null)) {
+            if (reusePort) sock.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            sock.bind(bind);
             sock.setSoTimeout(2000); // short poll so we can exit promptly
-            info("[MagicServer] listening UDP port " + port);
+            if (worker == 0) info("[MagicServer] listening UDP {}", bind);
             byte[] buf = new byte[2048];
+            MagicFrame frame = new MagicFrame(); // binary frames only
+            Ack ack = acks ? new Ack((b, to) -> sock.send(new DatagramPacket(b.array(), b.position(), b.remaining(), to))) : null;
             while (running) {
                 try {
                     DatagramPacket pkt = new DatagramPacket(buf, buf.length);
                     sock.receive(pkt);
-                    String msg = new String(pkt.getData(), pkt.getOffset(), pkt.getLength(), StandardCharsets.UTF_8).trim();
-                    handle(msg, pkt);
+                    long t0 = System.nanoTime();
+                    RECEIVED.inc();
+                    handle(pkt.getData(), pkt.getOffset(), pkt.getLength(), (InetSocketAddress) pkt.getSocketAddress(), frame, ack);
+                    HANDLE.observeSince(t0);
                 } catch (java.net.SocketTimeoutException ignored) {
-                    // loop to check running flag
+                    drops.tick(System.nanoTime()); // loop to check running flag
                 } catch (Exception e) {
-                    error("[MagicServer] exception: " + e.getMessage());
+                    error("[MagicServer] exception: {}", e.getMessage());
                 }
             }
-        } catch (Exception e) {
-            error("[MagicServer] fatal: " + e.getMessage());
-        } finally {
-            info("[MagicServer] stopped.");
         }
     }
 
-    private void handle(String msg, DatagramPacket pkt) {
-        // Expected: RPCS|ts|nonce|cmd|arg1|...|hmacHex
+    /** @param ack reply channel, or null when ACKs are off */
+    void handle(byte[] data, int off, int len, InetSocketAddress src, MagicFrame frame, Ack ack) {
+        if (len >= 2 && data[off] == MagicFrame.MAGIC0 && data[off + 1] == MagicFrame.MAGIC1) {
+            handle(ByteBuffer.wrap(data, off, len), src, frame, ack); // v2 has no String form to split
+            return;
+        }
+        if (!limiter.allow(src.getAddress(), System.nanoTime())) {
+            drops.record(Drop.RATE_LIMITED, null);
+            return;
+        }
+        String msg = new String(data, off, len, StandardCharsets.UTF_8).trim();
+        handle(msg, ByteBuffer.wrap(data, off, len), src, ack);
+    }
+
+    private void handle(String msg, ByteBuffer raw, InetSocketAddress src, Ack ack) {
+        // Expected: RPCS[:keyId]|ts|nonce|cmd|arg1|...|hmacHex
         String[] parts = msg.split("\\|");
-        if (parts.length < 5 || !"RPCS".equals(parts[0])) {
-            debug("[MagicServer] ignoring junk packet from " + pkt.getAddress());
+        if (parts.length < 5 || !(parts[0].equals("RPCS") || parts[0].startsWith("RPCS:") && parts[0].length() > 5)
+                || parts[2].getBytes(StandardCharsets.UTF_8).length > MagicFrame.MAX_NONCE) {
+            drops.record(Drop.JUNK, () -> "[MagicServer] ignoring junk packet from " + src.getAddress());
+            return;
+        }
+        TEXT.inc();
+        String keyId = parts[0].length() > 4 ? parts[0].substring(5) : null;
+        Keyring.Key key = keyring.find(keyId);
+        if (key == null) {
+            drops.record(Drop.UNKNOWN_KEY, () -> "[MagicServer] drop (unknown key " + keyId + ") from " + src.getAddress());
             return;
         }
+        Crypto.Hmac hmac = key.hmac();
 
         String tsStr = parts[1];
         String nonce = parts[2];
@@ -72,49 +276,231 @@ public final class MagicServer implements Runnable {
                 : new String[0];
 
         long ts;
-        try { ts = Long.parseLong(tsStr); } catch (NumberFormatException e) {
-            warn("[MagicServer] bad ts from " + pkt.getAddress());
+        try { ts = Long.parseLong(tsStr); } catch (NumberFormatException e) { ts = -1; } // like a negative one
+        if (ts < 0) {
+            drops.record(Drop.BAD_TS, () -> "[MagicServer] bad ts from " + src.getAddress());
             return;
         }
 
-        long now = ReplayCache.nowEpochSeconds();
-        int skew = Config.clockSkewSeconds();
-        if (Math.abs(now - ts) > skew) {
-            warn("[MagicServer] drop (skew) from " + pkt.getAddress() +
-                    " cmd=" + cmd + " ts=" + ts + " now=" + now);
+        int requestLen = raw.remaining();
+        if (!checkSkew(ts, cmd, src)) {
+            // a genuine sender with a wrong clock learns the server time; anyone else gets nothing
+            if (ack != null && hmac.verifyHex(signedRegion(raw), hmacHex)) ackText(ack, src, requestLen, nonce, hmac, Ack.Status.SKEW);
+            return;
+        }
+
+        // Verify HMAC over the received bytes before '|hmacHex'
+        if (!hmac.verifyHex(signedRegion(raw), hmacHex)) {
+            key.badMac();
+            drops.record(Drop.BAD_HMAC, () -> "[MagicServer] drop (bad hmac) from " + src.getAddress() + " cmd=" + cmd);
             return;
         }
         if (!cache.accept(nonce)) {
-            warn("[MagicServer] drop (replay) from " + pkt.getAddress() +
-                    " nonce=" + nonce);
+            drops.record(Drop.REPLAY, () -> "[MagicServer] drop (replay) from " + src.getAddress() + " nonce=" + nonce);
+            if (ack != null) ackText(ack, src, requestLen, nonce, hmac, Ack.Status.REPLAY);
+            return;
+        }
+
+        Ack.Status status = dispatch(key, src, nonce, cmd, args);
+        if (ack != null) ackText(ack, src, requestLen, nonce, hmac, status);
+    }
+
+    private static void ackText(Ack ack, InetSocketAddress src, int requestLen, String nonce, Crypto.Hmac hmac, Ack.Status status) {
+        byte[] n = nonce.getBytes(StandardCharsets.UTF_8);
+        ack.reply(src, requestLen, false, ByteBuffer.wrap(n), 0, n.length, hmac, status);
+    }
+
+    /** Everything up to (but excluding) the last '|', with leading whitespace skipped. */
+    private static ByteBuffer signedRegion(ByteBuffer raw) {
+        int from = raw.position();
+        while ((raw.get(from) & 0xff) <= ' ') from++;
+        int bar = raw.limit() - 1;
+        while (raw.get(bar) != '|') bar--;
+        return raw.limit(bar).position(from);
+    }
+
+    // --- nio engine: direct ByteBuffer + in-place frame parsing ---
+
+    private void runNio(int worker, boolean reusePort) throws Exception {
+        try (DatagramChannel ch = DatagramChannel.open();
+             Selector selector = Selector.open()) {
+            if (reusePort) ch.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            ch.bind(bind);
+            ch.configureBlocking(false);
+            ch.register(selector, SelectionKey.OP_READ);
+            if (worker == 0) info("[MagicServer] listening UDP {} (nio)", bind);
+
+            ByteBuffer buf = ByteBuffer.allocateDirect(2048);
+            MagicFrame frame = new MagicFrame();
+            Ack ack = acks ? new Ack((b, to) -> ch.send(b, to)) : null;
+            while (running) {
+                if (selector.select(2000) == 0) { // short poll so we can exit promptly
+                    drops.tick(System.nanoTime());
+                    continue;
+                }
+                selector.selectedKeys().clear();
+                InetSocketAddress src;
+                while ((src = (InetSocketAddress) ch.receive(buf.clear())) != null) {
+                    long t0 = System.nanoTime();
+                    RECEIVED.inc();
+                    try {
+                        handle(buf.flip(), src, frame, ack);
+                        HANDLE.observeSince(t0);
+                    } catch (Exception e) {
+                        error("[MagicServer] exception: {}", e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    /** Same checks as the classic path; no String is built for a packet that fails authentication. */
+    void handle(ByteBuffer buf, InetSocketAddress src, MagicFrame frame, Ack ack) {
+        if (admit(src)) handleAdmitted(buf, src, frame, ack);
+    }
+
+    /** Charges the pre-authentication rate limit for one packet (or one TCP read) from {@code src}. */
+    boolean admit(InetSocketAddress src) {
+        if (limiter.allow(src.getAddress(), System.nanoTime())) return true;
+        drops.record(Drop.RATE_LIMITED, null);
+        return false;
+    }
+
+    /** {@link #handle(ByteBuffer, InetSocketAddress, MagicFrame, Ack)} for a frame whose rate limit was charged. */
+    void handleAdmitted(ByteBuffer buf, InetSocketAddress src, MagicFrame frame, Ack ack) {
+        if (!frame.parse(buf)) {
+            drops.record(Drop.JUNK, () -> "[MagicServer] ignoring junk packet from " + src.getAddress());
+            return;
+        }
+        (frame.isBinary() ? BINARY : TEXT).inc();
+        Keyring.Key key = keyring.find(buf, frame.keyIdStart(), frame.keyIdLength());
+        if (key == null) {
+            drops.record(Drop.UNKNOWN_KEY, () -> "[MagicServer] drop (unknown key " + frame.keyId() + ") from " + src.getAddress());
+            return;
+        }
+
+        long ts = frame.timestamp();
+        if (ts == Long.MIN_VALUE) {
+            drops.record(Drop.BAD_TS, () -> "[MagicServer] bad ts from " + src.getAddress());
+            return;
+        }
+        int requestLen = buf.remaining();
+        if (!checkSkew(ts, null, src)) {
+            // a genuine sender with a wrong clock learns the server time; anyone else gets nothing
+            if (ack != null && authentic(key.hmac(), buf, frame)) ack(ack, src, requestLen, frame, key, Ack.Status.SKEW);
             return;
         }
 
-        // Verify HMAC
-        String canonical = canonicalize(parts);
-        String expected = Crypto.hmacSha256Hex(secret, canonical);
-        if (!expected.equalsIgnoreCase(hmacHex)) {
-            warn("[MagicServer] drop (bad hmac) from " + pkt.getAddress() +
-                    " cmd=" + cmd);
+        if (!authentic(key.hmac(), buf, frame)) {
+            key.badMac();
+            drops.record(Drop.BAD_HMAC, () -> "[MagicServer] drop (bad hmac) from " + src.getAddress());
             return;
         }
 
-        // Dispatch
-        info("[MagicServer] dispatch from " + pkt.getAddress() + ":" + pkt.getPort() +
-                " cmd=" + cmd + " args=" + Arrays.toString(args));
-        boolean known = registry.runByName(cmd, args);
-        if (!known) {
-            warn("[MagicServer] unknown cmd=" + cmd + " from " + pkt.getAddress());
+        if (!cache.accept(cache.key(buf, frame.nonceStart(), frame.nonceLength()))) {
+            drops.record(Drop.REPLAY, () -> "[MagicServer] drop (replay) from " + src.getAddress() + " nonce=" + frame.nonce());
+            if (ack != null) ack(ack, src, requestLen, frame, key, Ack.Status.REPLAY);
+            return;
+        }
+
+        String cmd = frame.command();
+        Ack.Status status = dispatch(key, src, frame.nonce(), cmd, frame.args());
+        if (ack != null) ack(ack, src, requestLen, frame, key, status);
+    }
+
+    /** HMAC over the raw signed bytes: hex after the last '|' (v1), trailing raw MAC (v2). */
+    private static boolean authentic(Crypto.Hmac hmac, ByteBuffer buf, MagicFrame frame) {
+        return frame.isBinary()
+                ? hmac.verify(buf, frame.signedStart(), frame.signedLength(), frame.macStart())
+                : hmac.verifyHex(buf, frame.signedStart(), frame.signedLength(), frame.macStart(), frame.macLength());
+    }
+
+    private static void ack(Ack ack, InetSocketAddress src, int requestLen, MagicFrame frame, Keyring.Key key, Ack.Status status) {
+        ack.reply(src, requestLen, frame.isBinary(), frame.buffer(), frame.nonceStart(), frame.nonceLength(), key.hmac(), status);
+    }
+
+    // --- shared ---
+
+    private boolean checkSkew(long ts, String cmd, InetSocketAddress src) {
+        long now = ReplayCache.nowEpochSeconds();
+        int skew = Config.clockSkewSeconds();
+        if (ts < now - skew || ts > now + skew) { // no subtraction of ts: it cannot overflow
+            drops.record(Drop.SKEW, () -> "[MagicServer] drop (skew) from " + src.getAddress() +
+                    (cmd != null ? " cmd=" + cmd : "") + " ts=" + ts + " now=" + now);
+            return false;
+        }
+        return true;
+    }
+
+    /** The key's validity window (server clock) and command list; counts the packet against the key. */
+    private boolean permitted(Keyring.Key key, InetSocketAddress src, String... cmds) {
+        long now = ReplayCache.nowEpochSeconds();
+        boolean ok = key.validAt(now);
+        for (int i = 0; ok && i < cmds.length; i++) ok = key.allows(cmds[i]);
+        if (!ok) {
+            key.denied();
+            drops.record(Drop.KEY_DENIED, () -> "[MagicServer] drop (key " + key.id() + " may not run "
+                    + String.join(",", cmds) + " now) from " + src.getAddress());
+            return false;
         }
+        key.accepted(now);
+        return true;
     }
 
-    /** Join everything up to (but excluding) the last field (hmac). */
-    private static String canonicalize(String[] parts) {
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < parts.length - 1; i++) {
-            if (i > 0) sb.append('|');
-            sb.append(parts[i]);
+    /** Permission check, then hands the command, or each step of a {@link Batch}, to the dispatcher. */
+    private Ack.Status dispatch(Keyring.Key key, InetSocketAddress src, String nonce, String cmd, String[] args) {
+        Origin origin = new Origin(src, key.id(), nonce);
+        if (!cmd.equals(Batch.NAME)) {
+            if (!permitted(key, src, needs(cmd, args).toArray(String[]::new))) return denied(key, src, cmd, args);
+            info(() -> "[MagicServer] dispatch from " + src.getAddress() + ":" + src.getPort() +
+                    " cmd=" + cmd + " args=" + Arrays.toString(args));
+            // never run inline: a slow command must not stall the receive loop
+            return status(dispatcher.submit(cmd, args, origin), key, src, cmd, args);
         }
-        return sb.toString();
+        Batch batch = Batch.parse(args);
+        if (batch == null) {
+            drops.record(Drop.UNKNOWN_CMD, () -> "[MagicServer] malformed batch from " + src.getAddress());
+            Audit.request(src, key.id(), cmd, args, Audit.Outcome.UNKNOWN);
+            return Ack.Status.UNKNOWN;
+        }
+        if (!permitted(key, src, batch.steps().stream().flatMap(st -> needs(st.name(), st.args()).stream())
+                .toArray(String[]::new))) return denied(key, src, cmd, args);
+        info(() -> "[MagicServer] dispatch from " + src.getAddress() + ":" + src.getPort() + " batch " + batch);
+        return status(dispatcher.submit(batch, origin), key, src, Batch.NAME, args);
+    }
+
+    private static Ack.Status denied(Keyring.Key key, InetSocketAddress src, String cmd, String[] args) {
+        Audit.request(src, key.id(), cmd, args, Audit.Outcome.DENIED);
+        return Ack.Status.DENIED;
+    }
+
+    /** The commands a key must allow to send {@code cmd}: scheduling a command needs that command too. */
+    private static List<String> needs(String cmd, String[] args) {
+        return cmd.equals(Scheduler.SCHEDULE) && args.length >= 2
+                ? List.of(cmd, args[1].toLowerCase(Locale.ROOT)) : List.of(cmd);
+    }
+
+    private Ack.Status status(Dispatcher.Result result, Keyring.Key key, InetSocketAddress src, String cmd, String[] args) {
+        Audit.request(src, key.id(), cmd, args, switch (result) {
+            case QUEUED -> Audit.Outcome.QUEUED;
+            case COALESCED -> Audit.Outcome.COALESCED;
+            case UNKNOWN -> Audit.Outcome.UNKNOWN;
+            case BUSY, OVERFLOW -> Audit.Outcome.BUSY;
+        });
+        return switch (result) {
+            case QUEUED -> {
+                DISPATCHED.inc();
+                yield Ack.Status.QUEUED;
+            }
+            case COALESCED -> Ack.Status.QUEUED; // the run it joined does what was asked
+            case UNKNOWN -> {
+                drops.record(Drop.UNKNOWN_CMD, () -> "[MagicServer] unknown cmd=" + cmd + " from " + src.getAddress());
+                yield Ack.Status.UNKNOWN;
+            }
+            case BUSY, OVERFLOW -> {
+                drops.record(Drop.DISPATCH_REJECTED, null);
+                yield Ack.Status.BUSY;
+            }
+        };
     }
 }
@@ -0,0 +1,45 @@
+package com.mirceone.net;
+
+import com.mirceone.core.Metrics;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import static com.mirceone.core.Log.*;
+
+/** Serves {@link Metrics#render()} at http://127.0.0.1:PORT/metrics. Bound to loopback only. */
+public final class MetricsServer {
+    private final HttpServer http;
+
+    private MetricsServer(HttpServer http) { this.http = http; }
+
+    public static MetricsServer start(int port) throws IOException {
+        HttpServer http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 16);
+        http.createContext("/metrics", MetricsServer::serve);
+        http.start();
+        info("[MetricsServer] serving http://{}:{}/metrics", InetAddress.getLoopbackAddress().getHostAddress(), port);
+        return new MetricsServer(http);
+    }
+
+    private static void serve(HttpExchange ex) throws IOException {
+        try (ex) {
+            if (!"GET".equals(ex.getRequestMethod())) {
+                ex.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = Metrics.render().getBytes(StandardCharsets.UTF_8);
+            ex.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            ex.sendResponseHeaders(200, body.length);
+            try (OutputStream out = ex.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    public void stop() { http.stop(0); }
+}
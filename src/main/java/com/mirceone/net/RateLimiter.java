@@ -0,0 +1,91 @@
+package com.mirceone.net;
+
+import java.net.InetAddress;
+
+/**
+ * Pre-authentication token buckets: one per source address plus one global.
+ * <p>
+ * Per-source buckets live in a fixed table of {@code slots} entries indexed by address hash,
+ * so memory is bounded no matter how many sources appear. A slot taken over by a different
+ * address starts again from a full bucket. Slots are guarded by striped locks. The global
+ * bucket caps the total rate even when sources are spoofed, but it is charged before
+ * authentication and shared by everyone: a spoofed flood that drains it also drops genuine
+ * signed packets. It is therefore off unless {@code RPCS_RATE_GLOBAL} is set, for hosts
+ * where HMAC work must be bounded more than commands must get through. Rates can be changed
+ * live with {@link #configure}; the table size cannot.
+ */
+final class RateLimiter {
+    private static final int STRIPES = 64;
+
+    private volatile double ratePerNano;
+    private volatile double burst;
+    private final int mask;
+    private final int[] owner;
+    private final double[] tokens;
+    private final long[] last;
+    private final Object[] locks = new Object[STRIPES];
+
+    private volatile double globalRatePerNano;
+    private volatile double globalBurst;
+    private double globalTokens;
+    private long globalLast;
+
+    /**
+     * @param perSecond  per-source refill rate; 0 disables per-source limiting
+     * @param burst      per-source bucket size
+     * @param globalPerSecond total refill rate; 0 disables the global limit
+     * @param slots      table size (rounded up to a power of two)
+     */
+    RateLimiter(double perSecond, double burst, double globalPerSecond, int slots) {
+        int n = Integer.highestOneBit(Math.max(STRIPES, slots - 1) << 1);
+        this.mask = n - 1;
+        this.owner = new int[n];
+        this.tokens = new double[n];
+        this.last = new long[n];
+        for (int i = 0; i < STRIPES; i++) locks[i] = new Object();
+        configure(perSecond, burst, globalPerSecond);
+        this.globalTokens = globalBurst;
+        this.globalLast = System.nanoTime();
+    }
+
+    /** New rates apply from the next packet; buckets keep their current fill (capped to the new burst). */
+    void configure(double perSecond, double burst, double globalPerSecond) {
+        this.ratePerNano = perSecond / 1e9;
+        this.burst = Math.max(1, burst);
+        synchronized (this) {
+            this.globalRatePerNano = globalPerSecond / 1e9;
+            this.globalBurst = Math.max(1, globalPerSecond);
+        }
+    }
+
+    boolean allow(InetAddress src, long nowNanos) {
+        if (ratePerNano > 0 && !allowSource(src.hashCode(), nowNanos)) return false;
+        return globalRatePerNano <= 0 || allowGlobal(nowNanos);
+    }
+
+    private boolean allowSource(int key, long now) {
+        int h = key * 0x9E3779B9;
+        int slot = (h ^ (h >>> 16)) & mask;
+        synchronized (locks[slot & (STRIPES - 1)]) {
+            double t;
+            if (owner[slot] != key || last[slot] == 0) {
+                owner[slot] = key;
+                t = burst;
+            } else {
+                t = Math.min(burst, tokens[slot] + (now - last[slot]) * ratePerNano);
+            }
+            last[slot] = now;
+            if (t < 1) { tokens[slot] = t; return false; }
+            tokens[slot] = t - 1;
+            return true;
+        }
+    }
+
+    private synchronized boolean allowGlobal(long now) {
+        globalTokens = Math.min(globalBurst, globalTokens + (now - globalLast) * globalRatePerNano);
+        globalLast = now;
+        if (globalTokens < 1) return false;
+        globalTokens -= 1;
+        return true;
+    }
+}
@@ -0,0 +1,239 @@
+package com.mirceone.net;
+
+import com.mirceone.core.Config;
+import com.mirceone.core.Metrics;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.mirceone.core.Log.*;
+
+/**
+ * TCP listener for the same signed frames as {@link MagicServer}'s UDP path, for links
+ * where datagrams get lost. Connections are long-lived; each frame is prefixed with its
+ * length (u16, big-endian, 1..{@value #MAX_FRAME}) and a client may pipeline any number of
+ * them. Every frame goes through the same skew, HMAC, replay and key checks and the same
+ * dispatch as a datagram ({@link MagicServer#handleAdmitted}) and gets its signed {@link Ack},
+ * length-prefixed the same way, in request order. The per-source rate limit is charged once per
+ * read rather than per frame, so a client can pipeline a whole batch of frames in one write.
+ * A frame that would get no reply over UDP (junk, unknown key, bad HMAC), or a read over the
+ * rate limit, closes the connection instead.
+ * <p>
+ * One selector thread does everything; handling a frame never waits on a command. Read and
+ * write buffers are direct, taken from a small pool when a connection opens and returned when
+ * it closes. Connections beyond {@code RPCS_TCP_MAX_CONNS} are closed on accept and idle ones
+ * after {@code RPCS_TCP_IDLE_MS}. While a peer does not read its replies, its connection is
+ * not read either, so a slow reader only fills its own socket buffers.
+ */
+final class TcpTransport implements Runnable {
+    static final int MAX_FRAME = 2048;
+    private static final int BUFFER = 8192; // > 2 + MAX_FRAME, so a whole frame always fits
+    private static final int POOLED = 32;
+    private static final Metrics.Counter FRAMES = Metrics.counter("rpcs_tcp_frames_total");
+    private static final Metrics.Counter ACCEPTED = Metrics.counter("rpcs_tcp_connections_total");
+
+    private final MagicServer server;
+    private final InetSocketAddress bind;
+    private final List<Conn> conns = new ArrayList<>();
+    private final ArrayDeque<ByteBuffer> pool = new ArrayDeque<>();
+    private final MagicFrame frame = new MagicFrame();
+    private final Ack ack;
+    private Conn current; // connection whose frame is being handled; the Ack sender appends to it
+    private volatile int openCount;
+
+    TcpTransport(MagicServer server, InetSocketAddress bind) {
+        this.server = server;
+        this.bind = bind;
+        this.ack = new Ack((b, to) -> current.out.putShort((short) b.remaining()).put(b), false);
+        Metrics.gauge("rpcs_tcp_connections", () -> openCount);
+    }
+
+    /** One client connection and its pooled buffers. */
+    private static final class Conn {
+        final SocketChannel ch;
+        final InetSocketAddress src;
+        final ByteBuffer in, out; // in: filling; out: replies not yet written
+        SelectionKey key;
+        long lastActive;
+
+        Conn(SocketChannel ch, InetSocketAddress src, ByteBuffer in, ByteBuffer out) {
+            this.ch = ch;
+            this.src = src;
+            this.in = in;
+            this.out = out;
+        }
+    }
+
+    @Override
+    public void run() {
+        try (ServerSocketChannel listener = ServerSocketChannel.open();
+             Selector selector = Selector.open()) {
+            listener.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            listener.bind(bind);
+            listener.configureBlocking(false);
+            listener.register(selector, SelectionKey.OP_ACCEPT);
+            info("[TcpTransport] listening TCP {}", bind);
+            long lastSweep = System.nanoTime();
+            while (server.running()) {
+                selector.select(1000);
+                long now = System.nanoTime();
+                for (SelectionKey k : selector.selectedKeys()) {
+                    try {
+                        if (!k.isValid()) continue;
+                        if (k.isAcceptable()) accept(listener, selector, now);
+                        else if (k.isWritable()) writable((Conn) k.attachment(), now);
+                        else if (k.isReadable()) readable((Conn) k.attachment(), now);
+                    } catch (IOException | CancelledKeyException e) {
+                        if (k.attachment() instanceof Conn c) close(c, "error");
+                    } catch (RuntimeException e) {
+                        error("[TcpTransport] exception: {}", e.getMessage());
+                        if (k.attachment() instanceof Conn c) close(c, "error");
+                    }
+                }
+                selector.selectedKeys().clear();
+                if (now - lastSweep >= 1_000_000_000L) {
+                    sweep(now);
+                    lastSweep = now;
+                }
+            }
+        } catch (IOException e) {
+            error("[TcpTransport] fatal: {}", e.getMessage());
+        } finally {
+            for (Conn c : new ArrayList<>(conns)) close(c, "shutdown");
+            info("[TcpTransport] stopped.");
+        }
+    }
+
+    private void accept(ServerSocketChannel listener, Selector selector, long now) throws IOException {
+        SocketChannel ch;
+        while ((ch = listener.accept()) != null) {
+            if (conns.size() >= Config.tcpMaxConnections()) {
+                closed("limit");
+                debug("[TcpTransport] connection limit reached, refusing {}", ch.getRemoteAddress());
+                ch.close();
+                continue;
+            }
+            ch.configureBlocking(false);
+            ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Conn c = new Conn(ch, (InetSocketAddress) ch.getRemoteAddress(), buffer(), buffer());
+            c.lastActive = now;
+            c.key = ch.register(selector, SelectionKey.OP_READ, c);
+            conns.add(c);
+            openCount = conns.size();
+            ACCEPTED.inc();
+        }
+    }
+
+    private void readable(Conn c, long now) throws IOException {
+        if (c.ch.read(c.in) < 0) {
+            close(c, "eof");
+            return;
+        }
+        c.lastActive = now;
+        if (!server.admit(c.src)) {
+            close(c, "rejected");
+            return;
+        }
+        process(c);
+    }
+
+    private void writable(Conn c, long now) throws IOException {
+        c.lastActive = now;
+        if (flush(c)) process(c); // frames may have waited for room
+    }
+
+    /**
+     * Handles every complete frame in {@code c.in} while there is room for its reply, then writes.
+     * If the socket takes every reply, frames still buffered are handled without waiting for
+     * another read.
+     */
+    private void process(Conn c) throws IOException {
+        do {
+            ByteBuffer in = c.in.flip();
+            while (in.remaining() >= 2 && c.out.remaining() >= 2 + Ack.MAX_LEN) {
+                int p = in.position();
+                int len = in.getShort(p) & 0xffff;
+                if (len == 0 || len > MAX_FRAME) {
+                    close(c, "frame");
+                    return;
+                }
+                if (in.remaining() < 2 + len) break;
+                int limit = in.limit(), replies = c.out.position();
+                FRAMES.inc();
+                current = c;
+                try {
+                    server.handleAdmitted(in.limit(p + 2 + len).position(p + 2), c.src, frame, ack);
+                } finally {
+                    current = null;
+                    in.limit(limit).position(p + 2 + len);
+                }
+                if (c.out.position() == replies) { // unauthenticated: no reply, no connection
+                    close(c, "rejected");
+                    return;
+                }
+            }
+            in.compact();
+        } while (flush(c) && hasFrame(c.in));
+    }
+
+    /** True if {@code in} (being filled) starts with a whole frame, or with a length that is invalid. */
+    private static boolean hasFrame(ByteBuffer in) {
+        if (in.position() < 2) return false;
+        int len = in.getShort(0) & 0xffff;
+        return len == 0 || len > MAX_FRAME || in.position() >= 2 + len;
+    }
+
+    /**
+     * Writes pending replies; reads are paused while some remain.
+     * @return true if everything was written
+     */
+    private boolean flush(Conn c) throws IOException {
+        if (c.out.position() > 0) {
+            c.ch.write(c.out.flip());
+            c.out.compact();
+        }
+        boolean done = c.out.position() == 0;
+        c.key.interestOps(done ? SelectionKey.OP_READ : SelectionKey.OP_WRITE);
+        return done;
+    }
+
+    private void sweep(long now) {
+        long idle = Config.tcpIdleMillis() * 1_000_000L;
+        for (Conn c : new ArrayList<>(conns)) {
+            if (now - c.lastActive > idle) close(c, "idle");
+        }
+    }
+
+    private void close(Conn c, String reason) {
+        if (!conns.remove(c)) return;
+        openCount = conns.size();
+        closed(reason);
+        debug("[TcpTransport] closed {} ({})", c.src, reason);
+        try {
+            c.ch.close();
+        } catch (IOException ignored) {
+            // already gone
+        }
+        release(c.in);
+        release(c.out);
+    }
+
+    private static void closed(String reason) {
+        Metrics.counter("rpcs_tcp_closed_total", "reason", reason).inc();
+    }
+
+    private ByteBuffer buffer() {
+        ByteBuffer b = pool.poll();
+        return b != null ? b : ByteBuffer.allocateDirect(BUFFER);
+    }
+
+    private void release(ByteBuffer b) {
+        if (pool.size() < POOLED) pool.push(b.clear());
+    }
+}
@@ -0,0 +1,51 @@
+#!/usr/bin/env bash
+# rpcs exec helper: runs allowlisted commands for the daemon (see com.mirceone.core.ExecHelper).
+#
+# usage: exec-helper.sh
+# stdin, NUL-separated fields:
+#   allowlist:  count, then per entry: argc, argv...
+#   request:    id, timeout seconds, argc, argv...
+# stdout, one reply per request (may complete out of order):
+#   "id exit-code stdout-bytes stderr-bytes\n", then those bytes (each stream cut at 64 KiB)
+# Exit code 124 means the timeout was hit, 126 that the command is not allowlisted.
+# Can be started through sudo (RPCS_EXEC_HELPER_CMD) so the daemon itself stays unprivileged.
+# Output is captured in a private directory this helper creates (mktemp, mode 0700, removed on
+# exit), never in a path the daemon chooses, and files are only ever created new (noclobber).
+# Replies can exceed a pipe's atomic write size, so each one is written under a lock.
+set -u -o noclobber
+max=65536
+priv=$(mktemp -d "${TMPDIR:-/tmp}/rpcs-exec-helper.XXXXXXXX") || exit 1
+trap 'rm -rf -- "$priv"' EXIT
+: >"$priv/lock"
+declare -A allowed
+
+IFS= read -r -d '' count || exit 0
+for ((i = 0; i < count; i++)); do
+    IFS= read -r -d '' argc || exit 1
+    key=
+    for ((j = 0; j < argc; j++)); do IFS= read -r -d '' a || exit 1; key+="$a"$'\x1f'; done
+    allowed[$key]=1
+done
+
+while IFS= read -r -d '' id && IFS= read -r -d '' secs && IFS= read -r -d '' argc; do
+    args=() key=
+    for ((j = 0; j < argc; j++)); do IFS= read -r -d '' a || exit 1; args+=("$a"); key+="$a"$'\x1f'; done
+    [[ $id =~ ^[0-9]+$ ]] || exit 1
+    if [[ -z ${allowed[$key]+x} ]]; then
+        { flock 9; printf '%s 126 0 0\n' "$id"; } 9>>"$priv/lock"
+        continue
+    fi
+    (
+        out=$priv/$id.out err=$priv/$id.err
+        timeout -k 2 "$secs" "${args[@]}" >"$out" 2>"$err" </dev/null
+        code=$?
+        truncate -s "<$max" -- "$out" "$err"
+        {
+            flock 9 # own open of the lock file: flock on an inherited descriptor would not exclude
+            printf '%s %d %d %d\n' "$id" "$code" "$(stat -c %s -- "$out")" "$(stat -c %s -- "$err")"
+            cat -- "$out" "$err"
+        } 9>>"$priv/lock"
+        rm -f -- "$out" "$err"
+    ) &
+done
+wait
@@ -0,0 +1,81 @@
+package com.mirceone.core;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AuditTest {
+    private static final InetSocketAddress SRC = new InetSocketAddress("10.0.0.7", 4000);
+    private static final String LONG_KEY = "living-room-phone-2026-rotation"; // 31 chars, MAX_KEY_ID is 32
+    private static final String SAME_PREFIX = "living-room-phone-2025-rotation";
+
+    private Path dir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dir = Files.createTempDirectory("rpcs-audit");
+        Audit.open(dir);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Audit.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path p : files.sorted(Comparator.reverseOrder()).toList()) Files.delete(p);
+        }
+    }
+
+    /** Records are written by a background thread: closing drains it, reopening allows queries. */
+    private void flush() {
+        Audit.close();
+        Audit.open(dir);
+    }
+
+    private static Audit.Filter byKey(String key) {
+        return new Audit.Filter(0, Long.MAX_VALUE, null, null, key);
+    }
+
+    @Test
+    void queryMatchesLongKeyIds() throws IOException {
+        Audit.request(SRC, LONG_KEY, "poweroff", new String[0], Audit.Outcome.QUEUED);
+        Audit.request(SRC, SAME_PREFIX, "suspend", new String[0], Audit.Outcome.DENIED);
+        Audit.request(SRC, "phone", "test", new String[0], Audit.Outcome.QUEUED);
+        flush();
+
+        int[] total = new int[1];
+        List<Audit.Entry> hits = Audit.query(byKey(LONG_KEY), 10, total);
+        assertEquals(1, total[0]);
+        assertEquals(LONG_KEY, hits.get(0).key());
+        assertEquals("poweroff", hits.get(0).command());
+
+        hits = Audit.query(byKey(SAME_PREFIX), 10, total);
+        assertEquals(1, total[0], "keys sharing a prefix are told apart");
+        assertEquals("suspend", hits.get(0).command());
+
+        Audit.query(byKey(LONG_KEY.substring(0, 12)), 10, total);
+        assertEquals(0, total[0]);
+    }
+
+    @Test
+    void keyIdOfMaximumLengthIsStoredWhole() throws IOException {
+        String key = "k".repeat(Audit.NAME);
+        Audit.run(new Origin(SRC, key, "n1"), "reboot", new String[]{"now"}, true, 5_000_000);
+        flush();
+
+        List<Audit.Entry> hits = Audit.query(byKey(key), 10, null);
+        assertEquals(1, hits.size());
+        assertEquals(key, hits.get(0).key());
+        assertEquals(Audit.Outcome.OK, hits.get(0).outcome());
+        assertEquals(5, hits.get(0).durationMillis());
+    }
+}
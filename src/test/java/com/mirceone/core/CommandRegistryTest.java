@@ -0,0 +1,45 @@
+package com.mirceone.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CommandRegistryTest {
+    private static final Metrics.Counter OK = Metrics.counter("rpcs_batches_total", "result", "ok");
+    private static final Metrics.Counter FAILED = Metrics.counter("rpcs_batches_total", "result", "failed");
+
+    private static Command command(String name, CompletableFuture<Void> result) {
+        return new Command() {
+            @Override public String name() { return name; }
+            @Override public String description() { return "test"; }
+            @Override public void run(String[] args) {}
+            @Override public CompletableFuture<Void> start(String[] args) { return result; }
+        };
+    }
+
+    private static Batch batch(List<Command> cmds) {
+        return new Batch(false, cmds.stream().map(c -> new Batch.Step(c.name(), new String[0])).toList());
+    }
+
+    @Test
+    void batchOfGoodStepsIsCountedOk() {
+        List<Command> cmds = List.of(command("a", CompletableFuture.completedFuture(null)),
+                command("b", CompletableFuture.completedFuture(null)));
+        long before = OK.get();
+        assertEquals(2, (int) CommandRegistry.start(batch(cmds), cmds, Origin.LOCAL).join());
+        assertEquals(before + 1, OK.get());
+    }
+
+    @Test
+    void batchThatCompletesExceptionallyIsCountedFailed() {
+        List<Command> cmds = List.of(command("broken", null)); // a start() that breaks the batch future itself
+        long before = FAILED.get();
+        CompletableFuture<Integer> f = CommandRegistry.start(batch(cmds), cmds, Origin.LOCAL);
+        assertThrows(CompletionException.class, f::join);
+        assertEquals(before + 1, FAILED.get());
+    }
+}
@@ -0,0 +1,68 @@
+package com.mirceone.core;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplayJournalTest {
+    private Path file;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        file = Files.createTempFile("rpcs-replay", ".journal");
+        Files.delete(file); // open() creates it owner-only
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    /** A cache restored from the journal, as the daemon starts; accepts {@code nonces} and closes. */
+    private ReplayCache restart(List<String> nonces) throws IOException {
+        ReplayCache cache = new ReplayCache(120, 64);
+        try (ReplayJournal journal = ReplayJournal.open(file, 16)) {
+            cache.restore(journal);
+            for (String n : nonces) assertTrue(cache.accept(n), n);
+        }
+        return cache;
+    }
+
+    @Test
+    void noncesOfOneSecondSurviveTwoRestarts() throws IOException {
+        List<String> first = List.of("a1", "a2", "a3", "a4", "a5"), second = List.of("b1", "b2", "b3");
+        restart(first);
+        restart(second);
+        ReplayCache cache = restart(List.of());
+        for (String n : first) assertFalse(cache.accept(n), n + " replayable");
+        for (String n : second) assertFalse(cache.accept(n), n + " replayable");
+    }
+
+    @Test
+    void cursorFollowsNewestRunAcrossTheEndOfTheRing() throws IOException {
+        long now = ReplayCache.nowEpochSeconds();
+        try (ReplayJournal j = ReplayJournal.open(file, 8)) {
+            j.load(0, Long.MAX_VALUE, (k, ts) -> {});
+            for (long k = 1; k <= 6; k++) j.append(k, now - 1);
+            for (long k = 11; k <= 14; k++) j.append(k, now); // slots 6, 7, 0, 1
+        }
+        try (ReplayJournal j = ReplayJournal.open(file, 8)) {
+            j.load(0, Long.MAX_VALUE, (k, ts) -> {});
+            j.append(15, now); // must take slot 2 (key 3, the oldest), not a slot of this second
+        }
+        Set<Long> keys = new HashSet<>();
+        try (ReplayJournal j = ReplayJournal.open(file, 8)) {
+            assertEquals(8, j.load(0, Long.MAX_VALUE, (k, ts) -> keys.add(k)));
+        }
+        assertEquals(Set.of(4L, 5L, 6L, 11L, 12L, 13L, 14L, 15L), keys); // 3 was the oldest
+    }
+}
@@ -0,0 +1,77 @@
+package com.mirceone.core;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SchedulerTest {
+    private static final Origin PHONE = new Origin(new InetSocketAddress("10.0.0.7", 4000), "phone", "n1");
+    private static final Origin LAPTOP = new Origin(new InetSocketAddress("10.0.0.8", 4000), "laptop", "n2");
+
+    private Scheduler scheduler;
+    private Command cancel;
+
+    @BeforeEach
+    void setUp() {
+        scheduler = new Scheduler(new CommandRegistry(), null, null);
+        cancel = scheduler.commands().stream().filter(c -> c.name().equals("cancel")).findFirst().orElseThrow();
+    }
+
+    @AfterEach
+    void tearDown() {
+        scheduler.close();
+    }
+
+    private long in1h(Origin origin) {
+        return scheduler.schedule(System.currentTimeMillis() + 3_600_000, origin, "test").id();
+    }
+
+    private boolean cancelAs(Origin origin, String arg) {
+        return CommandRegistry.start(cancel, new String[]{arg}, origin).join();
+    }
+
+    @Test
+    void keyCannotCancelAnotherKeysJobById() {
+        long id = in1h(PHONE);
+        assertFalse(cancelAs(LAPTOP, "#" + id));
+        assertFalse(scheduler.cancel(id, LAPTOP));
+        assertEquals(List.of(id), scheduler.jobs().stream().map(Scheduler.Job::id).toList());
+        assertTrue(cancelAs(PHONE, String.valueOf(id)));
+        assertTrue(scheduler.jobs().isEmpty());
+    }
+
+    @Test
+    void keyCannotCancelAnotherKeysJobByNonce() {
+        in1h(PHONE);
+        assertFalse(cancelAs(LAPTOP, "nonce=n1"));
+        assertEquals(1, scheduler.size());
+        assertTrue(cancelAs(PHONE, "nonce=n1"));
+        assertEquals(0, scheduler.size());
+    }
+
+    @Test
+    void moreArgsThanTheJobsFileHoldsAreRefused() {
+        long at = System.currentTimeMillis() + 60_000;
+        assertThrows(IllegalArgumentException.class,
+                () -> scheduler.schedule(at, Origin.LOCAL, "test", new String[Scheduler.MAX_ARGS + 1]));
+        assertEquals(0, scheduler.size());
+        String[] max = new String[Scheduler.MAX_ARGS];
+        Arrays.fill(max, "x");
+        scheduler.schedule(at, Origin.LOCAL, "test", max);
+        assertEquals(1, scheduler.size());
+    }
+
+    @Test
+    void replCancelsAnyJob() {
+        long remote = in1h(PHONE), local = in1h(Origin.LOCAL);
+        assertTrue(cancelAs(Origin.LOCAL, "#" + remote));
+        assertFalse(cancelAs(PHONE, "#" + local));
+        assertTrue(scheduler.cancel(local));
+    }
+}